@@ -19,6 +19,8 @@ public class EntityIO{
     final static Json json = new Json();
     //suffixes for sync fields
     final static String targetSuf = "_TARGET_", lastSuf = "_LAST_";
+    //delta masks are ints, so only this many fields can be tracked
+    final static int maxDeltaFields = 32;
     //replacements after refactoring
     final static StringMap replacements = StringMap.of("mindustry.entities.units.BuildRequest", "mindustry.entities.units.BuildPlan");
 
@@ -119,16 +121,33 @@ public class EntityIO{
     }
 
     void writeSync(MethodSpec.Builder method, boolean write, Seq<Svar> allFields) throws Exception{
+        writeSync(method, write, allFields, false);
+    }
+
+    /**
+     * Generates sync I/O code. When delta is true, every field is guarded by a bit in the 'mask' parameter;
+     * fields are numbered in the same order they are written in.
+     */
+    void writeSync(MethodSpec.Builder method, boolean write, Seq<Svar> allFields, boolean delta) throws Exception{
         this.method = method;
         this.write = write;
 
+        if(delta && syncFieldCount(allFields) > maxDeltaFields){
+            throw new IllegalArgumentException("Entity type '" + name + "' has more than " + maxDeltaFields + " synced fields, which cannot be represented by a delta mask.");
+        }
+
         if(write){
+            int bit = 0;
             //write uses most recent revision
             for(RevisionField field : revisions.peek().fields){
                 Svar var = allFields.find(s -> s.name().equals(field.name));
                 if(var == null || var.has(NoSync.class)) continue;
 
+                if(delta) cont("if((mask & $L) != 0)", 1 << bit++);
+
                 io(field.type, "this." + field.name, true);
+
+                if(delta) econt();
             }
         }else{
             Revision rev = revisions.peek();
@@ -138,12 +157,16 @@ public class EntityIO{
             st("lastUpdated = $T.millis()", Time.class);
             st("boolean islocal = isLocal()");
 
+            int bit = 0;
+
             //add code for reading revision
             for(RevisionField field : rev.fields){
                 Svar var = allFields.find(s -> s.name().equals(field.name));
                 if(var == null || var.has(NoSync.class)) continue;
                 boolean sf = var.has(SyncField.class), sl = var.has(SyncLocal.class);
 
+                if(delta) cont("if((mask & $L) != 0)", 1 << bit++);
+
                 if(sl) cont("if(!islocal)");
 
                 if(sf){
@@ -166,12 +189,31 @@ public class EntityIO{
 
                     econt();
                 }
+
+                if(delta){
+                    //unchanged field: keep the previous target, but restart interpolation from the current value
+                    if(sf){
+                        ncont("else");
+                        st(field.name + lastSuf + " = this." + field.name);
+                        if(sl) st("if(islocal) " + field.name + targetSuf + " = this." + field.name);
+                    }
+
+                    econt();
+                }
             }
 
             st("afterSync()");
         }
     }
 
+    /** @return the number of fields written by writeSync, which is also the number of bits used by delta masks. */
+    int syncFieldCount(Seq<Svar> allFields){
+        return revisions.peek().fields.count(field -> {
+            Svar var = allFields.find(s -> s.name().equals(field.name));
+            return var != null && !var.has(NoSync.class);
+        });
+    }
+
     void writeSyncManual(MethodSpec.Builder method, boolean write, Seq<Svar> syncFields) throws Exception{
         this.method = method;
         this.write = write;
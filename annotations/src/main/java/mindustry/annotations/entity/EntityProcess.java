@@ -514,6 +514,19 @@ public class EntityProcess extends BaseProcessor{
                             io.writeSync(mbuilder, first.name().equals("writeSync"), allFields);
                         }
 
+                        //SPECIAL CASE: sync I/O code that only handles fields in a bitmask
+                        if((first.name().equals("readSyncDelta") || first.name().equals("writeSyncDelta"))){
+                            io.writeSync(mbuilder, first.name().equals("writeSyncDelta"), allFields, true);
+                        }
+
+                        //SPECIAL CASE: number of fields that can be present in a sync delta mask
+                        //the component's default body is skipped, as it would be unreachable
+                        if(first.name().equals("syncFields")){
+                            mbuilder.addStatement("return $L", io.syncFieldCount(allFields));
+                            if(!legacy) builder.addMethod(mbuilder.build());
+                            continue;
+                        }
+
                         //SPECIAL CASE: sync I/O code for writing to/from a manual buffer
                         if((first.name().equals("readSyncManual") || first.name().equals("writeSyncManual"))){
                             io.writeSyncManual(mbuilder, first.name().equals("writeSyncManual"), syncedFields);
@@ -0,0 +1,92 @@
+package mindustry.ai;
+
+import arc.math.*;
+import arc.struct.*;
+
+/**
+ * A priority queue of positions with small integer costs (Dial's algorithm).
+ * Positions are kept in a ring of buckets, one for each cost between the lowest and highest cost in the queue.
+ * Adding and polling take constant time; the ring grows when the costs in the queue span more buckets than it has.
+ */
+public class BucketQueue{
+    /** Buckets by cost modulo their amount. Created when first used. */
+    private IntSeq[] buckets;
+    private int mask;
+    /** Lowest and highest cost that may be in the queue. */
+    private int min, max;
+
+    /** The number of positions in the queue. */
+    public int size;
+
+    public BucketQueue(){
+        this(64);
+    }
+
+    public BucketQueue(int capacity){
+        buckets = new IntSeq[Mathf.nextPowerOfTwo(Math.max(capacity, 2))];
+        mask = buckets.length - 1;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public void add(int pos, int cost){
+        if(size == 0){
+            min = max = cost;
+        }else if(cost < min || cost > max){
+            int newMin = Math.min(min, cost), newMax = Math.max(max, cost);
+            if(newMax - newMin >= buckets.length){
+                resize(newMax - newMin + 1);
+            }
+            min = newMin;
+            max = newMax;
+        }
+
+        IntSeq bucket = buckets[cost & mask];
+        if(bucket == null){
+            buckets[cost & mask] = bucket = new IntSeq();
+        }
+        bucket.add(pos);
+        size++;
+    }
+
+    /** Removes a position with the lowest cost. The queue must not be empty; the cost is available through {@link #cost()} afterwards. */
+    public int poll(){
+        IntSeq bucket;
+        while((bucket = buckets[min & mask]) == null || bucket.isEmpty()){
+            min++;
+        }
+        size--;
+        return bucket.pop();
+    }
+
+    /** @return the cost of the position that was polled last, or the lowest cost in the queue. */
+    public int cost(){
+        return min;
+    }
+
+    public void clear(){
+        for(IntSeq bucket : buckets){
+            if(bucket != null) bucket.clear();
+        }
+        size = 0;
+    }
+
+    private void resize(int span){
+        IntSeq[] old = buckets;
+        int oldMask = mask;
+
+        buckets = new IntSeq[Mathf.nextPowerOfTwo(span)];
+        mask = buckets.length - 1;
+
+        //every bucket only holds a single cost, which is the first one at or above the lowest cost with its index
+        for(int i = 0; i < old.length; i++){
+            IntSeq bucket = old[i];
+            if(bucket == null || bucket.isEmpty()) continue;
+
+            int cost = min + ((i - min) & oldMask);
+            buckets[cost & mask] = bucket;
+        }
+    }
+}
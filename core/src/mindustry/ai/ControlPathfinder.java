@@ -624,7 +624,7 @@ public class ControlPathfinder implements Runnable{
     }
 
     private static int tcost(int team, PathCost cost, int tilePos){
-        return cost.getCost(team, pathfinder.tiles[tilePos]);
+        return pathfinder.costGrid(team, cost)[tilePos];
     }
 
     private static float tileCost(int team, PathCost type, int a, int b){
@@ -899,6 +899,7 @@ public class ControlPathfinder implements Runnable{
         var pcost = cache.cost;
         var team = cache.team;
 
+        int[] costs = pathfinder.costGrid(team, pcost);
         long start = Time.nanos();
         int counter = 0;
 
@@ -939,7 +940,7 @@ public class ControlPathfinder implements Runnable{
 
                     int newPosArray = (dx - clx * clusterSize) + (dy - cly * clusterSize) * clusterSize;
 
-                    int otherCost = pcost.getCost(team, pathfinder.tiles[newPos]);
+                    int otherCost = costs[newPos];
                     int oldCost = weights[newPosArray];
 
                     //a cost of 0 means uninitialized, OR it means we're at the goal position, but that's handled above
@@ -1109,7 +1110,7 @@ public class ControlPathfinder implements Runnable{
         actualDestX = World.toTile(destination.x),
         actualDestY = World.toTile(destination.y),
         actualDestPos = actualDestX + actualDestY * wwidth,
-        initialCost = tileOn == null ? 0 : cost.getCost(team, pathfinder.tiles[tileOn.array()]),
+        initialCost = tileOn == null ? 0 : pathfinder.costGrid(team, cost)[tileOn.array()],
         destPos = destX + destY * wwidth;
 
         PathRequest request = unitRequests.get(unit);
@@ -1423,12 +1424,12 @@ public class ControlPathfinder implements Runnable{
     }
 
     private static boolean passable(int team, PathCost cost, int pos){
-        int amount = cost.getCost(team, pathfinder.tiles[pos]);
+        int amount = pathfinder.costGrid(team, cost)[pos];
         return amount != impassable && amount < solidCap;
     }
 
     private static boolean nearPassable(int initialCost, int team, PathCost cost, int pos){
-        int amount = cost.getCost(team, pathfinder.tiles[pos]);
+        int amount = pathfinder.costGrid(team, cost)[pos];
         return amount != impassable && amount < Math.min(Math.max(50, initialCost + 1), solidCap);
     }
 
@@ -1448,7 +1449,7 @@ public class ControlPathfinder implements Runnable{
                 return impassable;
             }
         }
-        return cost.getCost(team, pathfinder.tiles[tilePos]);
+        return pathfinder.costGrid(team, cost)[tilePos];
     }
 
     private void clusterChanged(int team, int pathCost, int cx, int cy){
@@ -0,0 +1,224 @@
+package mindustry.ai;
+
+import arc.math.geom.*;
+import arc.struct.*;
+import arc.util.*;
+import mindustry.ai.Pathfinder.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static mindustry.ai.Pathfinder.*;
+
+/**
+ * Splits the frontier of a large flow field into bands of rows, which are updated by different solver threads at the same time.
+ * Each band only writes the weights of its own rows; cost updates for tiles of a neighboring band are passed on between rounds.
+ * Tiles are relaxed until no cost decreases anymore, so the result is the same as with a single thread.
+ * Bands of ordered fields expand their own tiles in order of cost; tiles near the border of a band may be expanded more than once.
+ */
+class FrontierPartition{
+    /** How many tiles each band expands per round, before updates are exchanged with its neighbors. */
+    static final int roundSize = 2048;
+
+    final Flowfield path;
+    final Band[] bands;
+    final int bandRows;
+
+    private final ArrayList<Callable<Object>> tasks = new ArrayList<>();
+
+    FrontierPartition(Flowfield path, int threads){
+        this.path = path;
+        this.bandRows = Math.max((path.height + threads - 1) / threads, 1);
+        this.bands = new Band[(path.height + bandRows - 1) / bandRows];
+
+        for(int i = 0; i < bands.length; i++){
+            bands[i] = new Band(i * bandRows, Math.min((i + 1) * bandRows, path.height));
+            tasks.add(bands[i]);
+        }
+    }
+
+    /**
+     * Updates the frontier of the field for up to nsToRun nanoseconds, or until it is empty if negative.
+     * @return false if the search overflowed and was abandoned; its weights are incomplete then.
+     */
+    boolean update(ExecutorService executor, int[] tiles, long nsToRun) throws InterruptedException, ExecutionException{
+        long start = Time.nanos();
+        int w = path.width;
+
+        path.solving = true;
+        try{
+            for(Band band : bands){
+                band.tiles = tiles;
+                band.overflow = false;
+                band.queue.clear();
+                band.buckets.clear();
+                band.in.clear();
+                band.up.clear();
+                band.down.clear();
+            }
+
+            int[] weights = path.weights;
+            IntQueue frontier = path.frontier;
+            BucketQueue buckets = path.buckets;
+            while(frontier.size > 0){
+                int pos = frontier.removeLast();
+                bands[pos / w / bandRows].queue.addFirst(pos);
+            }
+            while(buckets.size > 0){
+                int pos = buckets.poll();
+                if(weights[pos] == buckets.cost()){
+                    bands[pos / w / bandRows].buckets.add(pos, weights[pos]);
+                }
+            }
+
+            while(true){
+                for(Future<Object> future : executor.invokeAll(tasks)){
+                    future.get();
+                }
+
+                boolean any = exchange();
+
+                for(Band band : bands){
+                    //pathfinding overflowed for some reason, time to bail. the next block update will handle this, hopefully
+                    if(band.overflow){
+                        for(Band other : bands){
+                            other.queue.clear();
+                            other.buckets.clear();
+                            other.in.clear();
+                        }
+                        return false;
+                    }
+                }
+
+                if(!any || (nsToRun >= 0 && Time.timeSinceNanos(start) >= nsToRun)) break;
+            }
+
+            //updates that were not received yet are applied here, so the next update can continue with a single frontier
+            for(Band band : bands){
+                band.receive();
+                while(band.queue.size > 0){
+                    frontier.addFirst(band.queue.removeLast());
+                }
+                while(band.buckets.size > 0){
+                    int pos = band.buckets.poll();
+                    if(weights[pos] == band.buckets.cost()){
+                        buckets.add(pos, weights[pos]);
+                    }
+                }
+            }
+            return true;
+        }finally{
+            path.solving = false;
+        }
+    }
+
+    /** Moves cost updates into the inbox of the band they are for. @return whether any band has work left. */
+    private boolean exchange(){
+        boolean any = false;
+        for(int i = 0; i < bands.length; i++){
+            Band band = bands[i];
+            band.in.clear();
+            if(i > 0) band.in.addAll(bands[i - 1].down);
+            if(i < bands.length - 1) band.in.addAll(bands[i + 1].up);
+        }
+        for(Band band : bands){
+            band.up.clear();
+            band.down.clear();
+            any |= band.size() > 0 || band.in.size > 0;
+        }
+        return any;
+    }
+
+    class Band implements Callable<Object>{
+        /** First row of this band, and the row after its last one. */
+        final int minRow, maxRow;
+        final IntQueue queue = new IntQueue();
+        final BucketQueue buckets = new BucketQueue();
+        /** Pairs of position and cost; received from neighbors, and to be sent to the band above and below. */
+        final IntSeq in = new IntSeq(), up = new IntSeq(), down = new IntSeq();
+
+        int[] tiles;
+        boolean overflow;
+
+        Band(int minRow, int maxRow){
+            this.minRow = minRow;
+            this.maxRow = maxRow;
+        }
+
+        @Override
+        public Object call(){
+            receive();
+
+            int w = path.width, h = path.height, search = path.search;
+            int[] weights = path.weights;
+            short[] searches = path.searches;
+            boolean ordered = path.ordered;
+
+            for(int i = 0; i < roundSize && size() > 0; i++){
+                int tile, cost;
+                if(ordered){
+                    tile = buckets.poll();
+                    cost = buckets.cost();
+                    //the tile was queued again with a lower cost, and has been expanded already
+                    if(weights[tile] != cost) continue;
+                }else{
+                    tile = queue.removeLast();
+                    cost = weights[tile];
+                    if(cost == impassable) continue;
+                }
+
+                for(Point2 point : Geometry.d4){
+                    int dx = (tile % w) + point.x, dy = (tile / w) + point.y;
+
+                    if(dx < 0 || dy < 0 || dx >= w || dy >= h) continue;
+
+                    int newPos = dx + dy * w;
+                    int otherCost = path.getCost(tiles, newPos);
+                    if(otherCost == impassable) continue;
+
+                    if(dy < minRow){
+                        up.add(newPos, cost + otherCost);
+                    }else if(dy >= maxRow){
+                        down.add(newPos, cost + otherCost);
+                    }else if(weights[newPos] > cost + otherCost || searches[newPos] < search){
+                        weights[newPos] = cost + otherCost;
+                        searches[newPos] = (short)search;
+                        add(newPos, weights[newPos]);
+                    }
+                }
+            }
+
+            overflow = queue.size >= w * h;
+            return null;
+        }
+
+        int size(){
+            return queue.size + buckets.size;
+        }
+
+        void add(int pos, int cost){
+            if(path.ordered){
+                buckets.add(pos, cost);
+            }else{
+                queue.addFirst(pos);
+            }
+        }
+
+        /** Applies the cost updates received from neighboring bands. */
+        void receive(){
+            int search = path.search;
+            int[] weights = path.weights;
+            short[] searches = path.searches;
+
+            for(int i = 0; i < in.size; i += 2){
+                int pos = in.items[i], cost = in.items[i + 1];
+                if(weights[pos] > cost || searches[pos] < search){
+                    weights[pos] = cost;
+                    searches[pos] = (short)search;
+                    add(pos, cost);
+                }
+            }
+            in.clear();
+        }
+    }
+}
@@ -18,6 +18,7 @@ import mindustry.world.blocks.storage.*;
 import mindustry.world.meta.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import static mindustry.Vars.*;
 import static mindustry.world.meta.BlockFlag.*;
@@ -27,6 +28,15 @@ public class Pathfinder implements Runnable{
     private static final int neverRefresh = Integer.MAX_VALUE;
     private static final int updateFPS = 60;
     private static final int updateInterval = 1000 / updateFPS;
+    /** Flow fields with a frontier at least this large are split between all solver threads. */
+    private static final int partitionFrontier = 512;
+    /** When a field is solved without a time limit, how often the frontier is checked for whether it can be split, in nanoseconds. */
+    private static final long partitionCheckTime = 1000 * 1000;
+
+    /** Amount of threads that update flow fields. Different fields are updated in parallel, and large ones are split into bands of rows. */
+    public static int solverThreads = Math.max(Math.min(OS.cores - 1, 4), 1);
+    /** Flow fields on maps with at least this many tiles only keep weights for the sectors units are in; see {@link SectorField}. */
+    public static int sectorFieldArea = 640 * 640;
 
     /** cached world size */
     static int wwidth, wheight;
@@ -103,7 +113,17 @@ public class Pathfinder implements Runnable{
     TaskQueue queue = new TaskQueue();
     /** Current pathfinding thread */
     @Nullable Thread thread;
+    /** Threads that update flow fields for the pathfinding thread. */
+    @Nullable ExecutorService solvers;
+    ArrayList<Callable<Object>> solverTasks = new ArrayList<>();
+    Seq<Flowfield> partitioned = new Seq<>();
     IntSeq tmpArray = new IntSeq();
+    /** Cost of every tile for each cost type and team that was asked for; see {@link #costGrid(int, PathCost)}. Replaced, never modified. */
+    volatile CostGrids costGrids = new CostGrids(new PathCost[0], new int[0][][]);
+    /** Positions of tiles that changed since the last refresh. Main thread only. */
+    IntSeq changedTiles = new IntSeq();
+    /** Temporary arrays for repairing flow fields. Pathfinding thread only. */
+    IntSeq repairStack = new IntSeq(), repairReset = new IntSeq();
 
     boolean needsRefresh;
 
@@ -113,20 +133,20 @@ public class Pathfinder implements Runnable{
         Events.on(WorldLoadEvent.class, event -> {
             stop();
 
-            //reset and update internal tile array
-            tiles = new int[world.width() * world.height()];
+            //reset and update internal tile array; it is filled before it is used, so cost grids are never created from an empty one
+            int[] packed = new int[world.width() * world.height()];
+            for(int i = 0; i < packed.length; i++){
+                Tile tile = world.tiles.geti(i);
+                packed[i] = packTile(packed, tile);
+            }
+
+            tiles = packed;
             wwidth = world.width();
             wheight = world.height();
             threadList = new Seq<>();
             mainList = new Seq<>();
             clearCache();
 
-
-            for(int i = 0; i < tiles.length; i++){
-                Tile tile = world.tiles.geti(i);
-                tiles[i] = packTile(tile);
-            }
-
             //don't bother setting up paths unless necessary
             if(state.rules.waveTeam.needsFlowField() && !net.client()){
                 preloadPath(getField(state.rules.waveTeam, costGround, fieldCore));
@@ -182,21 +202,33 @@ public class Pathfinder implements Runnable{
             if(needsRefresh && Core.graphics.getFrameId() % 2 == 0){
                 needsRefresh = false;
 
+                IntSeq changed = new IntSeq(changedTiles);
+                ObjectSet<Flowfield> retargeted = new ObjectSet<>();
+                changedTiles.clear();
+
                 //can't iterate through array so use the map, which should not lead to problems
                 for(Flowfield path : mainList){
                     //paths with a refresh rate should not be updated by tiles changing
                     if(path != null && path.needsRefresh()){
                         synchronized(path.targets){
                             //TODO: this is super slow and forces a refresh for every tile changed!
+                            tmpArray.clear();
+                            tmpArray.addAll(path.targets);
                             path.updateTargetPositions();
+
+                            if(!tmpArray.equals(path.targets)){
+                                retargeted.add(path);
+                            }
                         }
                     }
                 }
 
-                //mark every flow field as dirty, so it updates when it's done
+                //repair every flow field around the changed tiles; if that is not possible, mark it as dirty, so it updates when it's done
                 queue.post(() -> {
                     for(Flowfield data : threadList){
-                        data.dirty = true;
+                        if(retargeted.contains(data) || !repair(data, changed)){
+                            data.dirty = true;
+                        }
                     }
                 });
             }
@@ -205,10 +237,83 @@ public class Pathfinder implements Runnable{
 
     private void clearCache(){
         cache = new Flowfield[256][maxCosts][maxFields];
+        synchronized(this){
+            costGrids = new CostGrids(new PathCost[0], new int[0][][]);
+        }
+    }
+
+    /**
+     * @return the cost of every tile for a team and cost type, so that costs do not have to be calculated from tile data in hot loops.
+     * The grid is created on first use, and kept up to date as tiles change. Costs must only depend on the team and tile data. Any thread.
+     */
+    public int[] costGrid(int team, PathCost cost){
+        CostGrids grids = costGrids;
+        for(int i = 0; i < grids.costs.length; i++){
+            if(grids.costs[i] == cost){
+                int[] grid = grids.grids[i][team];
+                if(grid != null) return grid;
+                break;
+            }
+        }
+        return createCostGrid(team, cost);
+    }
+
+    private synchronized int[] createCostGrid(int team, PathCost cost){
+        CostGrids grids = costGrids;
+        int index = -1;
+        for(int i = 0; i < grids.costs.length; i++){
+            if(grids.costs[i] == cost){
+                index = i;
+                if(grids.grids[i][team] != null) return grids.grids[i][team];
+            }
+        }
+
+        int[] tiles = this.tiles;
+        int[] grid = new int[tiles.length];
+        for(int i = 0; i < tiles.length; i++){
+            grid[i] = cost.getCost(team, tiles[i]);
+        }
+
+        //copy the arrays that change, as other threads may be reading them
+        PathCost[] costs = grids.costs;
+        int[][][] all = grids.grids.clone();
+        if(index == -1){
+            index = costs.length;
+            costs = Arrays.copyOf(costs, index + 1);
+            costs[index] = cost;
+            all = Arrays.copyOf(all, index + 1);
+            all[index] = new int[256][];
+        }else{
+            all[index] = all[index].clone();
+        }
+        all[index][team] = grid;
+
+        costGrids = new CostGrids(costs, all);
+        return grid;
+    }
+
+    /** Recalculates the cost of a tile in every cost grid. */
+    private void updateCostGrids(int pos){
+        CostGrids grids = costGrids;
+        int packed = tiles[pos];
+        for(int i = 0; i < grids.costs.length; i++){
+            PathCost cost = grids.costs[i];
+            int[][] teams = grids.grids[i];
+            for(int team = 0; team < teams.length; team++){
+                if(teams[team] != null && pos < teams[team].length){
+                    teams[team][pos] = cost.getCost(team, packed);
+                }
+            }
+        }
     }
 
     /** Packs a tile into its internal representation. */
     public int packTile(Tile tile){
+        return packTile(tiles, tile);
+    }
+
+    /** Packs a tile into its internal representation. Tiles next to solid ones are marked as near solid in the given array. */
+    private int packTile(int[] tiles, Tile tile){
         boolean nearLiquid = false, nearSolid = false, nearLegSolid = false, nearGround = false, solid = tile.solid(), allDeep = tile.floor().isDeep(), nearDeep = allDeep;
 
         for(int i = 0; i < 4; i++){
@@ -276,11 +381,12 @@ public class Pathfinder implements Runnable{
             thread = null;
         }
         queue.clear();
+        changedTiles.clear();
         needsRefresh = false;
     }
 
     /** Update a tile in the internal pathfinding grid.
-     * Causes a complete pathfinding recalculation. Main thread only. */
+     * Causes flow fields to be repaired around it, or a complete pathfinding recalculation if that is not possible. Main thread only. */
     public void updateTile(Tile tile){
         if(net.client()) return;
 
@@ -288,9 +394,26 @@ public class Pathfinder implements Runnable{
             int pos = t.array();
             if(pos < tiles.length){
                 tiles[pos] = packTile(t);
+                changedTiles.add(pos);
             }
         });
 
+        //packing solid tiles and removing them change the near solid flag of tiles next to the linked ones; locked, so that grids that are being created do not miss this
+        synchronized(this){
+            tile.getLinkedTiles(t -> {
+                int pos = t.array();
+                if(pos >= tiles.length) return;
+
+                updateCostGrids(pos);
+                for(Point2 point : Geometry.d4){
+                    int x = t.x + point.x, y = t.y + point.y;
+                    if(x >= 0 && y >= 0 && x < wwidth && y < wheight){
+                        updateCostGrids(x + y * wwidth);
+                    }
+                }
+            });
+        }
+
         controlPath.updateTile(tile);
 
         //queue a refresh sometime in the future
@@ -307,16 +430,10 @@ public class Pathfinder implements Runnable{
                 if(state.isPlaying()){
                     queue.run();
 
-                    //each update time (not total!) no longer than maxUpdate
-                    for(Flowfield data : threadList){
-
-                        //if it's dirty and there is nothing to update, begin updating once more
-                        if(data.dirty && data.frontier.size == 0){
-                            updateTargets(data);
-                            data.dirty = false;
-                        }
-
-                        updateFrontier(data, maxUpdate);
+                    try{
+                        updateFields();
+                    }catch(InterruptedException e){
+                        return;
                     }
                 }
 
@@ -332,6 +449,85 @@ public class Pathfinder implements Runnable{
         }
     }
 
+    /** Updates every flow field for no longer than maxUpdate each (not total!). Pathfinding thread only. */
+    private void updateFields() throws InterruptedException, ExecutionException{
+        int[] tiles = this.tiles;
+        solverTasks.clear();
+        partitioned.clear();
+
+        for(Flowfield data : threadList){
+
+            //if it's dirty and there is nothing to update, begin updating once more
+            if(data.dirty && data.frontierSize() == 0){
+                updateTargets(data);
+                data.dirty = false;
+            }
+
+            if(solverThreads <= 1){
+                updateFrontier(data, tiles, maxUpdate);
+            }else if(canPartition(data)){
+                partitioned.add(data);
+            }else if(data.frontierSize() > 0 || data.sectors != null){
+                solverTasks.add(() -> {
+                    updateFrontier(data, tiles, maxUpdate);
+                    return null;
+                });
+            }
+        }
+
+        if(!solverTasks.isEmpty()){
+            for(Future<Object> future : solvers().invokeAll(solverTasks)){
+                future.get();
+            }
+        }
+
+        //large fields use all threads, one at a time
+        for(Flowfield data : partitioned){
+            solve(data, tiles, maxUpdate);
+        }
+    }
+
+    /** Updates the frontier of a path, splitting it between the solver threads if it is large. */
+    private void solve(Flowfield path, int[] tiles, long nsToRun) throws InterruptedException, ExecutionException{
+        if(!canPartition(path)){
+            if(nsToRun >= 0 || path.sectors != null){
+                updateFrontier(path, tiles, nsToRun);
+                return;
+            }
+
+            //fields solved without a time limit, e.g. when preloading, start with a small frontier; it is split once it grew large enough
+            do{
+                updateFrontier(path, tiles, partitionCheckTime);
+                if(path.frontierSize() == 0) return;
+            }while(!canPartition(path));
+        }
+
+        if(path.partition == null){
+            path.partition = new FrontierPartition(path, solverThreads);
+        }
+
+        //an overflowed search is left incomplete, like in updateFrontier
+        if(path.partition.update(solvers(), tiles, nsToRun) && path.frontierSize() == 0){
+            complete(path);
+        }
+    }
+
+    private boolean canPartition(Flowfield path){
+        return solverThreads > 1 && path.frontierSize() >= partitionFrontier && path.height >= solverThreads * 8;
+    }
+
+    private synchronized ExecutorService solvers(){
+        if(solvers == null){
+            solvers = Executors.newFixedThreadPool(solverThreads, runnable -> {
+                Thread thread = new Thread(runnable, "Pathfinder Solver");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return solvers;
+    }
+
     public Flowfield getField(Team team, int costType, int fieldType){
         if(cache[team.id][costType][fieldType] == null){
             Flowfield field = fieldTypes.get(fieldType).get();
@@ -362,7 +558,7 @@ public class Pathfinder implements Runnable{
         }
 
         //if refresh rate is positive, queue a refresh
-        if(path.refreshRate > 0 && path.refreshRate != neverRefresh && Time.timeSinceMillis(path.lastUpdateTime) > path.refreshRate && path.frontier.size == 0){
+        if(path.refreshRate > 0 && path.refreshRate != neverRefresh && Time.timeSinceMillis(path.lastUpdateTime) > path.refreshRate && path.frontierSize() == 0 && !path.solving){
             path.lastUpdateTime = Time.millis();
 
             tmpArray.clear();
@@ -376,6 +572,10 @@ public class Pathfinder implements Runnable{
             }
         }
 
+        if(path.sectors != null){
+            return path.sectors.getTargetTile(tile, diagonals);
+        }
+
         //use complete weights if possible; these contain a complete flow field that is not being updated
         int[] values = path.hasComplete ? path.completeWeights : path.weights;
         int res = path.resolution;
@@ -407,8 +607,12 @@ public class Pathfinder implements Runnable{
         return current;
     }
 
-    /** Increments the search and sets up flow sources. Does not change the frontier. */
+    /** Increments the search and sets up flow sources. Does not change the frontier, unless the field is ordered. */
     private void updateTargets(Flowfield path){
+        if(path.sectors != null){
+            path.sectors.invalidate();
+            return;
+        }
 
         //increment search, but do not clear the frontier
         path.search++;
@@ -419,6 +623,9 @@ public class Pathfinder implements Runnable{
             path.search = 1;
         }
 
+        //costs in an ordered frontier are from the previous search, so it has to start over
+        path.buckets.clear();
+
         synchronized(path.targets){
             //add targets
             for(int i = 0; i < path.targets.size; i++){
@@ -428,7 +635,103 @@ public class Pathfinder implements Runnable{
 
                 path.weights[pos] = 0;
                 path.searches[pos] = (short)path.search;
-                path.frontier.addFirst(pos);
+                path.addFrontier(pos);
+            }
+        }
+    }
+
+    /**
+     * Repairs a complete flow field around tiles that changed, instead of searching the whole field again.
+     * Tiles whose weight may have been reached through a changed tile are reset, and filled in again from the tiles around them;
+     * the rest of the field stays valid, and the complete weights are used until the repair is done.
+     * Pathfinding thread only.
+     * @return whether the field could be repaired. If not, it has to be searched again.
+     */
+    private boolean repair(Flowfield path, IntSeq changed){
+        if(path.sectors != null){
+            path.sectors.changed(changed);
+            return true;
+        }
+
+        //weights of a field that is still being searched are not final, so it is not known which of them depend on the changed tiles
+        if(path.resolution != 1 || !path.hasComplete || path.dirty || path.frontierSize() > 0 || path.solving) return false;
+
+        int w = path.width, h = path.height, search = path.search;
+        int[] weights = path.weights, tiles = this.tiles;
+        short[] searches = path.searches;
+        IntSeq stack = repairStack, reset = repairReset;
+        stack.clear();
+        reset.clear();
+
+        //the cost of a changed tile and the tiles next to it may be different now
+        for(int i = 0; i < changed.size; i++){
+            int pos = changed.items[i];
+            if(pos >= weights.length) continue;
+
+            stack.add(pos);
+            for(Point2 point : Geometry.d4){
+                int dx = (pos % w) + point.x, dy = (pos / w) + point.y;
+                if(dx >= 0 && dy >= 0 && dx < w && dy < h){
+                    stack.add(dx + dy * w);
+                }
+            }
+        }
+
+        while(stack.size > 0){
+            int pos = stack.pop();
+            int weight = weights[pos];
+
+            //skip tiles that were not reached, were reset already, or are targets
+            if(searches[pos] != search || weight == 0) continue;
+
+            searches[pos] = (short)(search - 1);
+            weights[pos] = impassable;
+            reset.add(pos);
+
+            //a tile was reached through this one if its weight is exactly the weight of this tile plus its cost
+            for(Point2 point : Geometry.d4){
+                int dx = (pos % w) + point.x, dy = (pos / w) + point.y;
+                if(dx < 0 || dy < 0 || dx >= w || dy >= h) continue;
+
+                int other = dx + dy * w;
+                if(searches[other] == search && weights[other] == weight + path.getCost(tiles, other)){
+                    stack.add(other);
+                }
+            }
+        }
+
+        //tiles around the reset and changed ones still have valid weights, so the search continues from them
+        for(int i = 0; i < reset.size; i++){
+            addRepairFrontier(path, reset.items[i]);
+        }
+        for(int i = 0; i < changed.size; i++){
+            if(changed.items[i] < weights.length){
+                addRepairFrontier(path, changed.items[i]);
+            }
+        }
+
+        //tiles were reset, but none of them can be reached anymore
+        if(reset.size > 0 && path.frontierSize() == 0){
+            complete(path);
+        }
+
+        return true;
+    }
+
+    /** Adds a tile and the tiles next to it to the frontier, if they have valid weights. */
+    private void addRepairFrontier(Flowfield path, int pos){
+        int w = path.width, h = path.height;
+        if(path.searches[pos] == path.search){
+            path.addFrontier(pos);
+        }
+
+        for(Point2 point : Geometry.d4){
+            int dx = (pos % w) + point.x, dy = (pos / w) + point.y;
+            if(dx < 0 || dy < 0 || dx >= w || dy >= h) continue;
+
+            int other = dx + dy * w;
+            if(path.searches[other] == path.search){
+                path.addFrontier(other);
             }
         }
     }
@@ -436,7 +739,11 @@ public class Pathfinder implements Runnable{
     private void preloadPath(Flowfield path){
         path.updateTargetPositions();
         registerPath(path);
-        updateFrontier(path, -1);
+        try{
+            solve(path, tiles, -1);
+        }catch(InterruptedException | ExecutionException e){
+            Log.err("Failed to preload flow field", e);
+        }
     }
 
     /**
@@ -447,12 +754,18 @@ public class Pathfinder implements Runnable{
     private void registerPath(Flowfield path){
         path.lastUpdateTime = Time.millis();
         path.setup();
+        if(path.resolution == 1){
+            path.costs = costGrid(path.team.id, path.cost);
+        }
 
         threadList.add(path);
 
         //add to main thread's list of paths
         Core.app.post(() -> mainList.add(path));
 
+        //sectors are solved on their first update
+        if(path.sectors != null) return;
+
         //fill with impassables by default
         Arrays.fill(path.weights, impassable);
 
@@ -460,12 +773,22 @@ public class Pathfinder implements Runnable{
         for(int i = 0; i < path.targets.size; i++){
             int pos = path.targets.get(i);
             path.weights[pos] = 0;
-            path.frontier.addFirst(pos);
+            path.addFrontier(pos);
         }
     }
 
-    /** Update the frontier for a path. Pathfinding thread only. */
-    private void updateFrontier(Flowfield path, long nsToRun){
+    /** Update the frontier for a path. Pathfinding thread or solver threads only. */
+    private void updateFrontier(Flowfield path, int[] tiles, long nsToRun){
+        if(path.sectors != null){
+            path.sectors.update(tiles, nsToRun);
+            return;
+        }
+
+        if(path.ordered){
+            updateOrdered(path, tiles, nsToRun);
+            return;
+        }
+
         boolean hadAny = path.frontier.size > 0;
         long start = Time.nanos();
 
@@ -512,15 +835,71 @@ public class Pathfinder implements Runnable{
 
         //there WERE some things in the frontier, but now they are gone, so the path is done; copy over latest data
         if(hadAny && path.frontier.size == 0){
-            System.arraycopy(path.weights, 0, path.completeWeights, 0, path.weights.length);
-            path.hasComplete = true;
+            complete(path);
         }
     }
 
+    /** Update the frontier for a path that expands tiles in order of their cost. Each tile is only expanded once per search. */
+    private void updateOrdered(Flowfield path, int[] tiles, long nsToRun){
+        BucketQueue frontier = path.buckets;
+        boolean hadAny = frontier.size > 0;
+        long start = Time.nanos();
+
+        int counter = 0;
+        int w = path.width, h = path.height, search = path.search;
+        int[] weights = path.weights;
+        short[] searches = path.searches;
+
+        while(frontier.size > 0){
+            int tile = frontier.poll();
+            int cost = frontier.cost();
+
+            //the tile was queued again with a lower cost, and has been expanded already
+            if(weights[tile] != cost) continue;
+
+            for(Point2 point : Geometry.d4){
+
+                int dx = (tile % w) + point.x, dy = (tile / w) + point.y;
+
+                if(dx < 0 || dy < 0 || dx >= w || dy >= h) continue;
+
+                int newPos = dx + dy * w;
+                int otherCost = path.getCost(tiles, newPos);
+
+                if((weights[newPos] > cost + otherCost || searches[newPos] < search) && otherCost != impassable){
+                    frontier.add(newPos, cost + otherCost);
+                    weights[newPos] = cost + otherCost;
+                    searches[newPos] = (short)search;
+                }
+            }
+
+            if(nsToRun >= 0 && (counter++) >= 200){
+                counter = 0;
+                if(Time.timeSinceNanos(start) >= nsToRun){
+                    return;
+                }
+            }
+        }
+
+        if(hadAny){
+            complete(path);
+        }
+    }
+
+    private void complete(Flowfield path){
+        System.arraycopy(path.weights, 0, path.completeWeights, 0, path.weights.length);
+        path.hasComplete = true;
+    }
+
     public static class EnemyCoreField extends Flowfield{
         private final static BlockFlag[] randomTargets = {storage, generator, launchPad, factory, repair, battery, reactor, drill};
         private Rand rand = new Rand();
 
+        public EnemyCoreField(){
+            //costs vary a lot between walls, deep water and open ground; expanding every tile only once saves a lot of work
+            ordered = true;
+        }
+
         @Override
         protected void getPositions(IntSeq out){
             if(state.rules.randomWaveAI && team == state.rules.waveTeam){
@@ -588,6 +967,12 @@ public class Pathfinder implements Runnable{
         protected volatile boolean hasComplete;
         /** If true, this flow field needs updating. This flag is only set to false once the flow field finishes and the weights are copied over. */
         protected boolean dirty = false;
+        /**
+         * If true, tiles are expanded in order of their cost using a bucket queue, so each tile is only expanded once per search.
+         * Otherwise, tiles are expanded first-in first-out, and again whenever a cheaper way to them is found; this is faster when all costs are similar.
+         * Set before using.
+         */
+        protected boolean ordered;
 
         /** costs of getting to a specific tile */
         public int[] weights;
@@ -602,6 +987,8 @@ public class Pathfinder implements Runnable{
 
         /** search frontier, these are Pos objects */
         final IntQueue frontier = new IntQueue();
+        /** search frontier of ordered fields, by cost */
+        final BucketQueue buckets = new BucketQueue();
         /** all target positions; these positions have a cost of 0, and must be synchronized on! */
         final IntSeq targets = new IntSeq();
         /** current search ID */
@@ -610,6 +997,14 @@ public class Pathfinder implements Runnable{
         long lastUpdateTime;
         /** whether this flow field is ready to be used */
         boolean initialized;
+        /** whether the frontier is split between solver threads right now, which makes it appear empty */
+        volatile boolean solving;
+        /** bands of rows that are updated in parallel; created once the frontier gets large */
+        @Nullable FrontierPartition partition;
+        /** weights by sector, used instead of weights for every tile on large maps */
+        @Nullable SectorField sectors;
+        /** cost of every tile for the team and cost type of this field; null if the resolution is not 1 */
+        @Nullable int[] costs;
 
         public Flowfield(){
             this(1);
@@ -624,15 +1019,36 @@ public class Pathfinder implements Runnable{
         void setup(){
             int length = width * height;
 
+            if(resolution == 1 && length >= sectorFieldArea){
+                this.sectors = new SectorField(this);
+                this.initialized = true;
+                return;
+            }
+
             this.weights = new int[length];
             this.searches = new short[length];
             this.completeWeights = new int[length];
-            this.frontier.ensureCapacity((length) / 4);
+            if(!ordered) this.frontier.ensureCapacity((length) / 4);
             this.initialized = true;
         }
 
         public int getCost(int[] tiles, int pos){
-            return cost.getCost(team.id, tiles[pos]);
+            int[] costs = this.costs;
+            return costs != null ? costs[pos] : cost.getCost(team.id, tiles[pos]);
+        }
+
+        /** @return the amount of tiles in the frontier. */
+        int frontierSize(){
+            return ordered ? buckets.size : frontier.size;
+        }
+
+        /** Adds a tile to the frontier with its current weight. */
+        void addFrontier(int pos){
+            if(ordered){
+                buckets.add(pos, weights[pos]);
+            }else{
+                frontier.addFirst(pos);
+            }
         }
 
         public boolean hasTargets(){
@@ -664,7 +1080,7 @@ public class Pathfinder implements Runnable{
         }
 
         protected boolean passable(int pos){
-            int amount = cost.getCost(team.id, pathfinder.tiles[pos]);
+            int amount = getCost(pathfinder.tiles, pos);
             //edge case: naval reports costs of 6000+ for non-liquids, even though they are not technically passable
             return amount != impassable && !(cost == costTypes.get(costNaval) && amount >= 6000);
         }
@@ -677,6 +1093,17 @@ public class Pathfinder implements Runnable{
         int getCost(int team, int tile);
     }
 
+    /** Cost grids by cost type index and team, along with the cost types they are for. */
+    static class CostGrids{
+        final PathCost[] costs;
+        final int[][][] grids;
+
+        CostGrids(PathCost[] costs, int[][][] grids){
+            this.costs = costs;
+            this.grids = grids;
+        }
+    }
+
     /** Holds a copy of tile data for a specific tile position. */
     @Struct
     class PathTileStruct{
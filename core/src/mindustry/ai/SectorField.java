@@ -0,0 +1,390 @@
+package mindustry.ai;
+
+import arc.math.*;
+import arc.math.geom.*;
+import arc.struct.*;
+import arc.util.*;
+import mindustry.ai.Pathfinder.*;
+import mindustry.world.*;
+
+import java.util.*;
+
+import static mindustry.Vars.*;
+import static mindustry.ai.Pathfinder.*;
+
+/**
+ * Weights of a flow field on a large map, solved on two levels so that there is no need for weights of every tile.
+ * The coarse level has one weight for each sector of {@link #sectorSize}² tiles; it is cheap, and always solved completely.
+ * Fine weights are only solved for sectors that units ask for paths in, and dropped once no unit has used them for a while.
+ * A fine sector is solved with a margin around it. The border of the margin starts out with the coarse weights of the sectors it lies in,
+ * which leads units towards the best neighboring sector.
+ * <p>
+ * Coarse weights assume that the passable tiles of a sector are connected, and can be crossed at their average cost,
+ * so paths are not always the shortest ones.
+ */
+public class SectorField{
+    public static final int sectorSize = 32;
+    /** Tiles solved around each fine sector. */
+    static final int margin = 8;
+    /** Fine weights of sectors that have not been used for this long are dropped, in milliseconds. */
+    static final long unusedTime = 10 * 1000;
+
+    final Flowfield path;
+    final int width, height, sectorsX, sectorsY;
+
+    /** Average cost of the passable tiles of each sector, or impassable. Pathfinding thread only. */
+    final int[] sectorCosts;
+    /** Whether a sector can be crossed to the sector to its right (bit 0) and above it (bit 1). Pathfinding thread only. */
+    final byte[] links;
+    /** Sectors with tiles that changed since their costs were last calculated. Pathfinding thread only. */
+    final boolean[] changedSectors;
+    /** Sectors that fine weights were requested for. Created on the main thread. */
+    final Sector[] sectors;
+
+    /** Coarse weights of each sector, or null if they have not been solved yet. Replaced every time they are solved. */
+    volatile @Nullable int[] coarse;
+    /** Incremented every time the coarse weights change. Pathfinding thread only. */
+    int version;
+    boolean solveCoarse = true;
+
+    private final PathfindQueue coarseQueue = new PathfindQueue();
+    private final BucketQueue queue = new BucketQueue();
+    private final boolean[] closed;
+
+    public SectorField(Flowfield path){
+        this.path = path;
+        this.width = path.width;
+        this.height = path.height;
+        this.sectorsX = (width + sectorSize - 1) / sectorSize;
+        this.sectorsY = (height + sectorSize - 1) / sectorSize;
+
+        int length = sectorsX * sectorsY;
+        sectorCosts = new int[length];
+        links = new byte[length];
+        changedSectors = new boolean[length];
+        sectors = new Sector[length];
+        closed = new boolean[length];
+        Arrays.fill(changedSectors, true);
+    }
+
+    /** Solves the coarse weights again on the next update, e.g. because targets changed. */
+    void invalidate(){
+        solveCoarse = true;
+    }
+
+    /** Recalculates the costs of sectors around changed tiles on the next update. */
+    void changed(IntSeq positions){
+        for(int i = 0; i < positions.size; i++){
+            int pos = positions.items[i];
+            int x = pos % width, y = pos / width;
+
+            //tiles next to a changed tile may have changed too; tiles on the edge of a sector also affect the links of the sector before it
+            for(int dx = -1; dx <= 1; dx++){
+                for(int dy = -1; dy <= 1; dy++){
+                    int cx = x + dx, cy = y + dy;
+                    if(cx >= 0 && cy >= 0 && cx < width && cy < height){
+                        changedSectors[sector(cx, cy)] = true;
+                    }
+                }
+            }
+        }
+        solveCoarse = true;
+    }
+
+    /** Solves the coarse weights if needed, and then fine weights of used sectors for up to nsToRun nanoseconds. Pathfinding thread or solver threads only. */
+    void update(int[] tiles, long nsToRun){
+        long start = Time.nanos();
+
+        if(solveCoarse){
+            solveCoarse = false;
+            updateCosts(tiles);
+            solveCoarse();
+        }
+
+        int[] coarse = this.coarse;
+        long time = Time.millis();
+
+        //sectors without any weights are solved first, then outdated ones
+        for(int pass = 0; pass < 2; pass++){
+            for(Sector sector : sectors){
+                if(sector == null) continue;
+
+                if(time - sector.lastUsed > unusedTime){
+                    sector.weights = null;
+                    sector.version = -1;
+                    continue;
+                }
+
+                if(sector.version != version && (pass == 1 || sector.weights == null)){
+                    solve(sector, tiles, coarse);
+                    sector.version = version;
+
+                    if(nsToRun >= 0 && Time.timeSinceNanos(start) >= nsToRun) return;
+                }
+            }
+        }
+    }
+
+    /** @return the next tile to travel to. Main thread only. */
+    public @Nullable Tile getTargetTile(Tile tile, boolean diagonals){
+        int[] coarse = this.coarse;
+        if(coarse == null) return tile;
+
+        int index = sector(tile.x, tile.y);
+        Sector sector = sectors[index];
+        if(sector == null){
+            sectors[index] = sector = new Sector(index);
+        }
+        sector.lastUsed = Time.millis();
+
+        int[] values = sector.weights;
+        if(values == null){
+            return getCoarseTile(tile, index, coarse);
+        }
+
+        int value = values[sector.index(tile.x, tile.y)];
+
+        var points = diagonals ? Geometry.d8 : Geometry.d4;
+
+        Tile current = null;
+        int tl = 0;
+        for(Point2 point : points){
+            int dx = tile.x + point.x, dy = tile.y + point.y;
+
+            Tile other = world.tile(dx, dy);
+            if(other == null) continue;
+
+            int otherValue = values[sector.index(dx, dy)];
+
+            if(otherValue < value && (current == null || otherValue < tl) && path.passable(other.array()) &&
+            !(point.x != 0 && point.y != 0 && (!path.passable(world.packArray(dx, tile.y)) || !path.passable(world.packArray(tile.x, dy))))){ //diagonal corner trap
+                current = other;
+                tl = otherValue;
+            }
+        }
+
+        if(current == null || tl == impassable || (path.cost == costTypes.items[costGround] && current.dangerous() && !tile.dangerous())) return tile;
+
+        return current;
+    }
+
+    /** @return a tile towards the best neighboring sector, for use until the fine weights of this sector are solved. */
+    private Tile getCoarseTile(Tile tile, int index, int[] coarse){
+        int sx = index % sectorsX, sy = index / sectorsX;
+        int best = -1, bestValue = coarse[index];
+        if(bestValue == impassable || bestValue == 0) return tile;
+
+        for(Point2 point : Geometry.d4){
+            int nx = sx + point.x, ny = sy + point.y;
+            if(nx < 0 || ny < 0 || nx >= sectorsX || ny >= sectorsY) continue;
+
+            int other = nx + ny * sectorsX;
+            if(linked(index, other) && coarse[other] != impassable && coarse[other] < bestValue){
+                best = other;
+                bestValue = coarse[other];
+            }
+        }
+
+        if(best == -1) return tile;
+
+        float tx = (best % sectorsX + 0.5f) * sectorSize, ty = (best / sectorsX + 0.5f) * sectorSize;
+        Tile current = tile;
+        float dst = Mathf.dst2(tile.x, tile.y, tx, ty);
+        for(Point2 point : Geometry.d4){
+            Tile other = world.tile(tile.x + point.x, tile.y + point.y);
+            if(other != null && path.passable(other.array()) && Mathf.dst2(other.x, other.y, tx, ty) < dst){
+                current = other;
+                dst = Mathf.dst2(other.x, other.y, tx, ty);
+            }
+        }
+        return current;
+    }
+
+    /** Calculates the average cost and links of sectors that changed. */
+    private void updateCosts(int[] tiles){
+        for(int s = 0; s < changedSectors.length; s++){
+            if(!changedSectors[s]) continue;
+            changedSectors[s] = false;
+
+            int x0 = (s % sectorsX) * sectorSize, y0 = (s / sectorsX) * sectorSize;
+            int x1 = Math.min(x0 + sectorSize, width), y1 = Math.min(y0 + sectorSize, height);
+
+            long sum = 0;
+            int count = 0;
+            for(int y = y0; y < y1; y++){
+                for(int x = x0; x < x1; x++){
+                    int cost = path.getCost(tiles, x + y * width);
+                    if(cost != impassable){
+                        sum += cost;
+                        count++;
+                    }
+                }
+            }
+            sectorCosts[s] = count == 0 ? impassable : (int)(sum / count);
+
+            byte link = 0;
+            if(x1 < width){
+                for(int y = y0; y < y1; y++){
+                    if(path.getCost(tiles, x1 - 1 + y * width) != impassable && path.getCost(tiles, x1 + y * width) != impassable){
+                        link |= 1;
+                        break;
+                    }
+                }
+            }
+            if(y1 < height){
+                for(int x = x0; x < x1; x++){
+                    if(path.getCost(tiles, x + (y1 - 1) * width) != impassable && path.getCost(tiles, x + y1 * width) != impassable){
+                        link |= 2;
+                        break;
+                    }
+                }
+            }
+            links[s] = link;
+        }
+    }
+
+    private void solveCoarse(){
+        int[] weights = new int[sectorCosts.length];
+        Arrays.fill(weights, impassable);
+        Arrays.fill(closed, false);
+        PathfindQueue queue = coarseQueue;
+        queue.clear();
+
+        synchronized(path.targets){
+            for(int i = 0; i < path.targets.size; i++){
+                int pos = path.targets.get(i);
+                if(pos >= width * height) continue;
+
+                int s = sector(pos % width, pos / width);
+                if(weights[s] != 0){
+                    weights[s] = 0;
+                    queue.add(s, 0);
+                }
+            }
+        }
+
+        while(!queue.empty()){
+            int s = queue.poll();
+            if(closed[s]) continue;
+            closed[s] = true;
+
+            int sx = s % sectorsX, sy = s / sectorsX;
+            for(Point2 point : Geometry.d4){
+                int nx = sx + point.x, ny = sy + point.y;
+                if(nx < 0 || ny < 0 || nx >= sectorsX || ny >= sectorsY) continue;
+
+                int other = nx + ny * sectorsX;
+                if(closed[other] || sectorCosts[other] == impassable || !linked(s, other)) continue;
+
+                int weight = weights[s] + sectorCosts[other] * sectorSize;
+                if(weights[other] == impassable || weight < weights[other]){
+                    weights[other] = weight;
+                    queue.add(other, weight);
+                }
+            }
+        }
+
+        coarse = weights;
+        version++;
+    }
+
+    /** Solves the fine weights of a sector and its margin. */
+    private void solve(Sector sector, int[] tiles, @Nullable int[] coarse){
+        if(coarse == null) return;
+
+        int x0 = sector.x, y0 = sector.y, w = sector.width, h = sector.height;
+        int[] weights = new int[w * h];
+        Arrays.fill(weights, impassable);
+        BucketQueue queue = this.queue;
+        queue.clear();
+
+        //the border of the margin leads towards the sectors it lies in; edges of the map do not lead anywhere
+        for(int y = 0; y < h; y++){
+            for(int x = 0; x < w; x++){
+                boolean border = (x == 0 && x0 > 0) || (y == 0 && y0 > 0) || (x == w - 1 && x0 + w < width) || (y == h - 1 && y0 + h < height);
+                if(!border) continue;
+
+                int wx = x0 + x, wy = y0 + y;
+                int value = coarse[sector(wx, wy)];
+                if(value != impassable && path.getCost(tiles, wx + wy * width) != impassable){
+                    seed(weights, x + y * w, value);
+                }
+            }
+        }
+
+        synchronized(path.targets){
+            for(int i = 0; i < path.targets.size; i++){
+                int pos = path.targets.get(i);
+                int x = pos % width - x0, y = pos / width - y0;
+                if(pos < width * height && x >= 0 && y >= 0 && x < w && y < h){
+                    seed(weights, x + y * w, 0);
+                }
+            }
+        }
+
+        while(queue.size > 0){
+            int tile = queue.poll();
+            int cost = queue.cost();
+
+            //the tile was queued again with a lower cost, and has been expanded already
+            if(weights[tile] != cost) continue;
+
+            for(Point2 point : Geometry.d4){
+                int dx = (tile % w) + point.x, dy = (tile / w) + point.y;
+
+                if(dx < 0 || dy < 0 || dx >= w || dy >= h) continue;
+
+                int newPos = dx + dy * w;
+                int otherCost = path.getCost(tiles, (x0 + dx) + (y0 + dy) * width);
+
+                if(otherCost != impassable && (weights[newPos] == impassable || weights[newPos] > cost + otherCost)){
+                    weights[newPos] = cost + otherCost;
+                    queue.add(newPos, cost + otherCost);
+                }
+            }
+        }
+
+        sector.weights = weights;
+    }
+
+    private void seed(int[] weights, int index, int value){
+        if(weights[index] == impassable || value < weights[index]){
+            weights[index] = value;
+            queue.add(index, value);
+        }
+    }
+
+    private boolean linked(int sector, int other){
+        if(other == sector + 1) return (links[sector] & 1) != 0;
+        if(other == sector - 1) return (links[other] & 1) != 0;
+        if(other == sector + sectorsX) return (links[sector] & 2) != 0;
+        return (links[other] & 2) != 0;
+    }
+
+    int sector(int x, int y){
+        return x / sectorSize + y / sectorSize * sectorsX;
+    }
+
+    /** Fine weights of a sector and the margin around it. */
+    class Sector{
+        /** Bottom left corner and size of the solved area, in tiles. */
+        final int x, y, width, height;
+        /** Weights of the solved area, or null if they are not solved yet. Replaced every time they are solved. */
+        volatile @Nullable int[] weights;
+        /** Version of the coarse weights that the fine weights were solved with. */
+        int version = -1;
+        volatile long lastUsed;
+
+        Sector(int index){
+            int sx = (index % sectorsX) * sectorSize, sy = (index / sectorsX) * sectorSize;
+            x = Math.max(sx - margin, 0);
+            y = Math.max(sy - margin, 0);
+            width = Math.min(sx + sectorSize + margin, SectorField.this.width) - x;
+            height = Math.min(sy + sectorSize + margin, SectorField.this.height) - y;
+        }
+
+        int index(int tx, int ty){
+            return (tx - x) + (ty - y) * width;
+        }
+    }
+}
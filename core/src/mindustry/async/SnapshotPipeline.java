@@ -0,0 +1,95 @@
+package mindustry.async;
+
+import arc.struct.*;
+import arc.util.*;
+import mindustry.net.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Sends snapshot packets to clients on a worker pool, so that compressing and writing them does not happen on the main thread.
+ * Each connection has two packet buffers: one that is filled on the main thread, and one that is being sent by a worker.
+ * If a connection's previous batch is still being sent when a new one is submitted, the new batch is dropped. This is safe, as snapshots are unreliable.
+ * Entity snapshot data is copied into pooled buffers, which are returned once the packets have been written.
+ * All methods except {@link #obtainBuffer(int)} must be called on the main thread.
+ */
+public class SnapshotPipeline{
+    private final ObjectMap<NetConnection, Staging> staging = new ObjectMap<>();
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private @Nullable ExecutorService executor;
+    private int dropped;
+
+    /** @return an empty buffer to add the next batch of packets for this connection to. */
+    public Seq<Packet> begin(NetConnection con){
+        Staging stage = staging.get(con, Staging::new);
+        stage.front.clear();
+        return stage.front;
+    }
+
+    /** Submits the packets added to the buffer returned by {@link #begin(NetConnection)} to be sent. */
+    public void submit(NetConnection con){
+        Staging stage = staging.get(con);
+        if(stage == null || stage.front.isEmpty()) return;
+
+        if(!stage.sending.compareAndSet(false, true)){
+            dropped++;
+            release(stage.front);
+            return;
+        }
+
+        //swap buffers; the worker owns the back buffer until it is done sending
+        Seq<Packet> batch = stage.front;
+        stage.front = stage.back;
+        stage.back = batch;
+
+        if(executor == null){
+            executor = Threads.executor("Snapshot Sender", Math.max(Math.min(OS.cores / 2, 4), 1));
+        }
+
+        executor.submit(() -> {
+            try{
+                for(Packet packet : batch){
+                    if(!con.isConnected()) break;
+                    con.send(packet, false);
+                }
+            }finally{
+                release(batch);
+                stage.sending.set(false);
+            }
+        });
+    }
+
+    /** @return a pooled buffer with at least the specified size. */
+    public byte[] obtainBuffer(int size){
+        byte[] buffer = buffers.poll();
+        //buffers that are too small are discarded, so the pool converges on the largest size in use
+        return buffer == null || buffer.length < size ? new byte[Math.max(size, 1024)] : buffer;
+    }
+
+    /** Returns the pooled buffers of a batch and clears it. */
+    private void release(Seq<Packet> batch){
+        for(Packet packet : batch){
+            if(packet instanceof EntitySnapshotPacket snap && snap.pooled){
+                snap.pooled = false;
+                buffers.add(snap.buffer);
+            }
+        }
+        batch.clear();
+    }
+
+    /** Removes the buffers of a disconnected connection. */
+    public void remove(NetConnection con){
+        staging.remove(con);
+    }
+
+    /** @return the amount of batches that were dropped because the previous batch for the connection was still being sent. */
+    public int dropped(){
+        return dropped;
+    }
+
+    static class Staging{
+        Seq<Packet> front = new Seq<>(), back = new Seq<>();
+        final AtomicBoolean sending = new AtomicBoolean();
+    }
+}
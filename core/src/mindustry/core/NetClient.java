@@ -29,7 +29,6 @@ import mindustry.world.modules.*;
 
 import java.io.*;
 import java.util.*;
-import java.util.zip.*;
 
 import static mindustry.Vars.*;
 
@@ -55,9 +54,19 @@ public class NetClient implements ApplicationListener{
     private long lastSnapshotTimestamp;
     /** Last sent client snapshot ID. */
     private int lastSent;
+    /** ID of the newest entity snapshot that data has been read from. Older snapshots are discarded. */
+    private int lastEntitySnapshot = -1;
+    /** Chunks read from the newest entity snapshot, and the total amount of chunks in it, or -1 if the last chunk has not arrived. */
+    private int entitySnapshotChunks, entitySnapshotTotal = -1;
+    /** ID of the newest entity snapshot that was read completely. This is sent back to the server as an acknowledgement. */
+    private int completeEntitySnapshot = -1;
+    /** Whether a delta was received for an entity that does not exist here. Causes the server to resend everything. */
+    private boolean entityBaselineLost, entitySnapshotInvalid;
 
     /** List of entities that were removed, and need not be added while syncing. */
     private IntSet removed = new IntSet();
+    /** Entity snapshot chunks that are not due yet. */
+    private SnapshotBuffer snapshotBuffer = new SnapshotBuffer();
     /** Byte stream for reading in snapshots. */
     private ReusableByteInStream byteStream = new ReusableByteInStream();
     private DataInputStream dataStream = new DataInputStream(byteStream);
@@ -100,6 +109,8 @@ public class NetClient implements ApplicationListener{
             c.locale = locale;
             c.mods = mods.getModStrings();
             c.mobile = mobile;
+            c.dictionary = true;
+            c.batches = true;
             c.versionType = Version.type;
             c.color = player.color.rgba();
             c.usid = getUsid(packet.addressTCP);
@@ -141,7 +152,7 @@ public class NetClient implements ApplicationListener{
 
         net.handleClient(WorldStream.class, data -> {
             Log.info("Received world data: @ bytes.", data.stream.available());
-            NetworkIO.loadWorld(new InflaterInputStream(data.stream));
+            NetworkIO.loadWorld(data.stream);
 
             finishConnecting();
         });
@@ -407,6 +418,7 @@ public class NetClient implements ApplicationListener{
     public static void worldDataBegin(){
         Groups.clear();
         netClient.removed.clear();
+        netClient.resetEntitySnapshots();
         logic.reset();
         netClient.connecting = true;
 
@@ -445,6 +457,7 @@ public class NetClient implements ApplicationListener{
     public static void readSyncEntity(DataInputStream input, Reads read) throws IOException{
         int id = input.readInt();
         byte typeID = input.readByte();
+        int mask = input.readInt();
 
         Syncc entity = Groups.sync.getByID(id);
         boolean add = false, created = false;
@@ -459,13 +472,20 @@ public class NetClient implements ApplicationListener{
             entity = (Syncc)EntityMapping.map(typeID & 0xFF).get();
             entity.id(id);
             if(!netClient.isEntityUsed(entity.id())){
+                //a delta can't be applied to an entity that doesn't exist; read it to skip the data, and request a full state
+                if(mask != -1){
+                    entity.readSyncDelta(read, mask);
+                    netClient.entityBaselineLost = true;
+                    return;
+                }
+
                 add = true;
             }
             created = true;
         }
 
         //read the entity
-        entity.readSync(read);
+        entity.readSyncDelta(read, mask);
 
         if(created){
             //snap initial starting position
@@ -479,21 +499,66 @@ public class NetClient implements ApplicationListener{
     }
 
     @Remote(variants = Variant.one, priority = PacketPriority.low, unreliable = true)
-    public static void entitySnapshot(short amount, byte[] data){
+    public static void entitySnapshot(int snapshotID, int time, short chunk, boolean last, short amount, byte[] data){
+        if(snapshotID < netClient.lastEntitySnapshot) return;
+
+        netClient.lastSnapshotTimestamp = Time.millis();
+        //snapshots are applied once they are due, so that entities move at the pace the server sent them at
+        netClient.snapshotBuffer.add(snapshotID, time, chunk, last, amount, data);
+        netClient.readEntitySnapshots();
+    }
+
+    /** Reads all buffered entity snapshot chunks that are due. */
+    private void readEntitySnapshots(){
+        SnapshotBuffer.Chunk next;
+        while((next = snapshotBuffer.poll()) != null){
+            readEntitySnapshot(next.id, next.chunk, next.last, next.amount, next.data);
+        }
+    }
+
+    private static void readEntitySnapshot(int snapshotID, short chunk, boolean last, short amount, byte[] data){
+        //discard snapshots that arrived out of order, as they would overwrite newer state
+        if(snapshotID < netClient.lastEntitySnapshot) return;
+
+        if(snapshotID != netClient.lastEntitySnapshot){
+            netClient.lastEntitySnapshot = snapshotID;
+            netClient.entitySnapshotChunks = 0;
+            netClient.entitySnapshotTotal = -1;
+            netClient.entitySnapshotInvalid = false;
+        }
+
         try{
-            netClient.lastSnapshotTimestamp = Time.millis();
             netClient.byteStream.setBytes(data);
             DataInputStream input = netClient.dataStream;
 
             for(int j = 0; j < amount; j++){
                 readSyncEntity(input, Reads.get(input));
             }
+
+            netClient.entitySnapshotChunks++;
+            if(last) netClient.entitySnapshotTotal = chunk + 1;
+
+            if(netClient.entityBaselineLost){
+                netClient.entityBaselineLost = false;
+                netClient.completeEntitySnapshot = -1;
+                //this snapshot is not usable as a baseline anymore
+                netClient.entitySnapshotInvalid = true;
+            }else if(!netClient.entitySnapshotInvalid && netClient.entitySnapshotChunks == netClient.entitySnapshotTotal){
+                netClient.completeEntitySnapshot = snapshotID;
+            }
         }catch(Exception e){
             //don't disconnect, just log it
             Log.err("Error reading entity snapshot", e);
         }
     }
 
+    @Remote(variants = Variant.one, priority = PacketPriority.high)
+    public static void snapshotDictionary(int id, byte[] data){
+        //the server only starts compressing with the dictionary once it knows it has arrived
+        PacketDictionary.register(new PacketDictionary(id, data));
+        Call.snapshotDictionaryAck(id);
+    }
+
     @Remote(variants = Variant.one, priority = PacketPriority.low, unreliable = true)
     public static void hiddenSnapshot(IntSeq ids){
         for(int i = 0; i < ids.size; i++){
@@ -580,6 +645,7 @@ public class NetClient implements ApplicationListener{
 
         if(state.isGame()){
             if(!connecting){
+                readEntitySnapshots();
                 sync();
 
                 //timeout if UDP snapshot packets are not received for a while
@@ -639,11 +705,22 @@ public class NetClient implements ApplicationListener{
         quiet = false;
         lastSent = 0;
         lastSnapshotTimestamp = 0;
+        resetEntitySnapshots();
+        PacketDictionary.clear();
 
         Groups.clear();
         ui.chatfrag.clearMessages();
     }
 
+    private void resetEntitySnapshots(){
+        lastEntitySnapshot = -1;
+        entitySnapshotChunks = 0;
+        entitySnapshotTotal = -1;
+        completeEntitySnapshot = -1;
+        entityBaselineLost = entitySnapshotInvalid = false;
+        snapshotBuffer.clear();
+    }
+
     public void beginConnecting(){
         connecting = true;
     }
@@ -686,6 +763,7 @@ public class NetClient implements ApplicationListener{
 
             Call.clientSnapshot(
             lastSent++,
+            completeEntitySnapshot,
             uid,
             dead,
             dead ? player.x : unit.x, dead ? player.y : unit.y,
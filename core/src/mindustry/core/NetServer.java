@@ -10,6 +10,7 @@ import arc.util.*;
 import arc.util.CommandHandler.*;
 import arc.util.io.*;
 import mindustry.annotations.Annotations.*;
+import mindustry.async.*;
 import mindustry.content.*;
 import mindustry.core.GameState.*;
 import mindustry.entities.units.*;
@@ -27,7 +28,6 @@ import mindustry.world.*;
 import java.io.*;
 import java.net.*;
 import java.nio.*;
-import java.util.zip.*;
 
 import static arc.util.Log.*;
 import static mindustry.Vars.*;
@@ -35,15 +35,22 @@ import static mindustry.Vars.*;
 public class NetServer implements ApplicationListener{
     /** note that snapshots are compressed, so the max snapshot size here is above the typical UDP safe limit */
     private static final int maxSnapshotSize = 800;
-    private static final int timerBlockSync = 0, timerHealthSync = 1;
-    private static final float blockSyncTime = 60 * 6, healthSyncTime = 30;
+    private static final int timerBlockSync = 0, timerHealthSync = 1, timerPruneDeltas = 2;
+    private static final float blockSyncTime = 60 * 6, healthSyncTime = 30, pruneDeltasTime = 60 * 10;
+    /** Buildings are checked for changes in this many slices per block sync interval, so large maps do not cause a spike. */
+    private static final int blockSyncSlices = 30;
+    /** Each building is sent once every this many block sync intervals even if it has not changed, in case a snapshot was lost. */
+    private static final int blockRefreshCycles = 2;
     private static final FloatBuffer fbuffer = FloatBuffer.allocate(20);
     private static final Writes dataWrites = new Writes(null);
     private static final IntSeq hiddenIds = new IntSeq();
     private static final IntSeq healthSeq = new IntSeq(maxSnapshotSize / 4 + 1);
     private static final Vec2 vector = new Vec2();
+    private static final Rect syncView = new Rect();
     /** If a player goes away of their server-side coordinates by this distance, they get teleported back. */
     private static final float correctDist = tilesize * 14f;
+    /** Entities this far outside of a player's view are still synced at the full rate, so they are up to date when they come into view. */
+    private static final float syncViewMargin = tilesize * 10f;
 
     public Administration admins = new Administration();
     public CommandHandler clientCommands = new CommandHandler("/");
@@ -107,6 +114,10 @@ public class NetServer implements ApplicationListener{
     public static float voteDuration = 0.5f * 60;
     /** Cooldown between votes in seconds. */
     public static int voteCooldown = 60 * 5;
+    /** How many queued connect packets are handled per frame. */
+    public static int connectsPerFrame = 4;
+    /** How long a player may take to receive and load world data before the next queued player is allowed to start, in milliseconds. */
+    public static long worldTransferTimeout = 1000 * 60;
 
     private ReusableByteOutStream writeBuffer = new ReusableByteOutStream(127);
     private Writes outputBuffer = new Writes(new DataOutputStream(writeBuffer));
@@ -115,6 +126,36 @@ public class NetServer implements ApplicationListener{
     private ReusableByteOutStream syncStream = new ReusableByteOutStream();
     /** Data stream for writing player sync data to. */
     private DataOutputStream dataStream = new DataOutputStream(syncStream);
+    /** Stream that building sync data is written to, to check whether it has changed. */
+    private ReusableByteOutStream blockSyncStream = new ReusableByteOutStream();
+    private DataOutputStream blockDataStream = new DataOutputStream(blockSyncStream);
+    /** Index of the next building to check in Groups.build, and how many times all buildings have been checked. */
+    private int blockSyncIndex, blockSyncCycle;
+    /** Connections that receive every building once, as they may have missed changes while loading the world. */
+    private Seq<BlockCatchup> blockCatchups = new Seq<>();
+    /** Serializes entities once per frame and tracks their field changes for delta snapshots. */
+    private SyncDeltaTracker syncDeltas = new SyncDeltaTracker();
+    /** Sends snapshots on worker threads, if enabled. */
+    private SnapshotPipeline snapshotPipeline = new SnapshotPipeline();
+    /** Packets of the snapshot that is currently being written, if it is sent asynchronously. */
+    private @Nullable Seq<Packet> snapshotBatch;
+    /** Dictionary for compressing snapshots of the current map, or null if not enough snapshots have been sampled yet. */
+    private @Nullable PacketDictionary snapshotDictionary;
+    /** Recent snapshot data that the next packet dictionary is built from. */
+    private ReusableByteOutStream dictionarySample = new ReusableByteOutStream(PacketDictionary.maxSize);
+    private int nextDictionaryId;
+    /** Incremented whenever the map changes in a way that invalidates cached world data. */
+    private int worldEpoch;
+    /** Compressed map data shared between joining players, and the epoch and time it was written at. */
+    private @Nullable byte[] worldDataCache;
+    private int worldDataEpoch;
+    private long worldDataTime;
+    /** Connect packets waiting to be handled. */
+    private Queue<PendingConnect> connectQueue = new Queue<>();
+    /** Players waiting to receive world data, as too many other players are already loading it. */
+    private Queue<Player> worldQueue = new Queue<>();
+    /** Connections that are receiving or loading world data, mapped to the time sending started. */
+    private ObjectMap<NetConnection, Long> worldTransfers = new ObjectMap<>();
     /** Packet handlers for custom types of messages. */
     private ObjectMap<String, Seq<Cons2<Player, String>>> customPacketHandlers = new ObjectMap<>();
     /** Packet handlers for custom types of messages - binary version. */
@@ -123,6 +164,18 @@ public class NetServer implements ApplicationListener{
     private ObjectMap<String, Seq<Cons2<Player, Object>>> logicClientDataHandlers = new ObjectMap<>();
 
     public NetServer(){
+        Events.on(WorldLoadEvent.class, e -> invalidateWorldData());
+        Events.on(WorldLoadEvent.class, e -> {
+            //entity types and layouts differ between maps, so sample them again
+            snapshotDictionary = null;
+            dictionarySample.reset();
+        });
+        Events.on(TileChangeEvent.class, e -> invalidateWorldData());
+        Events.on(TileFloorChangeEvent.class, e -> invalidateWorldData());
+        Events.on(BuildTeamChangeEvent.class, e -> invalidateWorldData());
+        Events.on(BuildRotateEvent.class, e -> invalidateWorldData());
+        Events.on(BlockDestroyEvent.class, e -> invalidateWorldData());
+        Events.on(ConfigEvent.class, e -> invalidateWorldData());
 
         net.handleServer(Connect.class, (con, connect) -> {
             Events.fire(new ConnectionEvent(con));
@@ -133,174 +186,186 @@ public class NetServer implements ApplicationListener{
         });
 
         net.handleServer(Disconnect.class, (con, packet) -> {
+            snapshotPipeline.remove(con);
+            worldTransfers.remove(con);
+            blockCatchups.removeAll(c -> c.con == con);
+
             if(con.player != null){
                 onDisconnect(con.player, packet.reason);
             }
         });
 
         net.handleServer(ConnectPacket.class, (con, packet) -> {
-            if(con.kicked) return;
+            //handled over several frames, so a burst of connections cannot stall the server
+            connectQueue.addLast(new PendingConnect(con, packet));
+        });
 
-            if(con.address.startsWith("steam:")){
-                packet.uuid = con.address.substring("steam:".length());
-            }
+        registerCommands();
+    }
 
-            Events.fire(new ConnectPacketEvent(con, packet));
+    /** Handles the connect packet of a new connection, creating its player and sending world data if it is allowed to join. */
+    private void handleConnect(NetConnection con, ConnectPacket packet){
+        if(con.kicked) return;
 
-            con.connectTime = Time.millis();
+        if(con.address.startsWith("steam:")){
+            packet.uuid = con.address.substring("steam:".length());
+        }
 
-            String uuid = packet.uuid;
+        Events.fire(new ConnectPacketEvent(con, packet));
 
-            if(admins.isIPBanned(con.address) || admins.isSubnetBanned(con.address) || con.kicked || !con.isConnected()) return;
+        con.connectTime = Time.millis();
 
-            if(con.hasBegunConnecting){
-                con.kick(KickReason.idInUse);
-                return;
-            }
+        String uuid = packet.uuid;
 
-            PlayerInfo info = admins.getInfo(uuid);
+        if(admins.isIPBanned(con.address) || admins.isSubnetBanned(con.address) || con.kicked || !con.isConnected()) return;
 
-            con.hasBegunConnecting = true;
-            con.mobile = packet.mobile;
+        if(con.hasBegunConnecting){
+            con.kick(KickReason.idInUse);
+            return;
+        }
 
-            if(packet.uuid == null || packet.usid == null){
-                con.kick(KickReason.idInUse);
-                return;
-            }
+        PlayerInfo info = admins.getInfo(uuid);
 
-            if(admins.isIDBanned(uuid)){
-                con.kick(KickReason.banned);
-                return;
-            }
+        con.hasBegunConnecting = true;
+        con.mobile = packet.mobile;
+        con.supportsDictionary = packet.dictionary;
+        con.supportsBatches = packet.batches;
 
-            if(Time.millis() < admins.getKickTime(uuid, con.address)){
-                con.kick(KickReason.recentKick);
-                return;
+        if(packet.uuid == null || packet.usid == null){
+            con.kick(KickReason.idInUse);
+            return;
+        }
+
+        if(admins.isIDBanned(uuid)){
+            con.kick(KickReason.banned);
+            return;
+        }
+
+        if(Time.millis() < admins.getKickTime(uuid, con.address)){
+            con.kick(KickReason.recentKick);
+            return;
+        }
+
+        if(admins.getPlayerLimit() > 0 && Groups.player.size() >= admins.getPlayerLimit() && !netServer.admins.isAdmin(uuid, packet.usid)){
+            con.kick(KickReason.playerLimit);
+            return;
+        }
+
+        Seq<String> extraMods = packet.mods.copy();
+        Seq<String> missingMods = mods.getIncompatibility(extraMods);
+
+        if(!extraMods.isEmpty() || !missingMods.isEmpty()){
+            //can't easily be localized since kick reasons can't have formatted text with them
+            StringBuilder result = new StringBuilder("[accent]Incompatible mods![]\n\n");
+            if(!missingMods.isEmpty()){
+                result.append("Missing:[lightgray]\n").append("> ").append(missingMods.toString("\n> "));
+                result.append("[]\n");
             }
 
-            if(admins.getPlayerLimit() > 0 && Groups.player.size() >= admins.getPlayerLimit() && !netServer.admins.isAdmin(uuid, packet.usid)){
-                con.kick(KickReason.playerLimit);
-                return;
+            if(!extraMods.isEmpty()){
+                result.append("Unnecessary mods:[lightgray]\n").append("> ").append(extraMods.toString("\n> "));
             }
+            con.kick(result.toString(), 0);
+            return;
+        }
 
-            Seq<String> extraMods = packet.mods.copy();
-            Seq<String> missingMods = mods.getIncompatibility(extraMods);
+        if(!admins.isWhitelisted(packet.uuid, packet.usid)){
+            info.adminUsid = packet.usid;
+            info.lastName = packet.name;
+            info.id = packet.uuid;
+            admins.save(info);
+            Call.infoMessage(con, "You are not whitelisted here.");
+            info("&lcDo &lywhitelist add @&lc to whitelist the player &lb'@'", packet.uuid, packet.name);
+            con.kick(KickReason.whitelist);
+            return;
+        }
 
-            if(!extraMods.isEmpty() || !missingMods.isEmpty()){
-                //can't easily be localized since kick reasons can't have formatted text with them
-                StringBuilder result = new StringBuilder("[accent]Incompatible mods![]\n\n");
-                if(!missingMods.isEmpty()){
-                    result.append("Missing:[lightgray]\n").append("> ").append(missingMods.toString("\n> "));
-                    result.append("[]\n");
-                }
+        if(packet.versionType == null || ((packet.version == -1 || !packet.versionType.equals(Version.type)) && Version.build != -1 && !admins.allowsCustomClients())){
+            con.kick(!Version.type.equals(packet.versionType) ? KickReason.typeMismatch : KickReason.customClient);
+            return;
+        }
 
-                if(!extraMods.isEmpty()){
-                    result.append("Unnecessary mods:[lightgray]\n").append("> ").append(extraMods.toString("\n> "));
-                }
-                con.kick(result.toString(), 0);
-                return;
-            }
+        boolean preventDuplicates = headless && netServer.admins.isStrict();
 
-            if(!admins.isWhitelisted(packet.uuid, packet.usid)){
-                info.adminUsid = packet.usid;
-                info.lastName = packet.name;
-                info.id = packet.uuid;
-                admins.save();
-                Call.infoMessage(con, "You are not whitelisted here.");
-                info("&lcDo &lywhitelist add @&lc to whitelist the player &lb'@'", packet.uuid, packet.name);
-                con.kick(KickReason.whitelist);
+        if(preventDuplicates){
+            if(Groups.player.contains(p -> Strings.stripColors(p.name).trim().equalsIgnoreCase(Strings.stripColors(packet.name).trim()))){
+                con.kick(KickReason.nameInUse);
                 return;
             }
 
-            if(packet.versionType == null || ((packet.version == -1 || !packet.versionType.equals(Version.type)) && Version.build != -1 && !admins.allowsCustomClients())){
-                con.kick(!Version.type.equals(packet.versionType) ? KickReason.typeMismatch : KickReason.customClient);
+            if(Groups.player.contains(player -> player.uuid().equals(packet.uuid) || player.usid().equals(packet.usid))){
+                con.uuid = packet.uuid;
+                con.kick(KickReason.idInUse);
                 return;
             }
 
-            boolean preventDuplicates = headless && netServer.admins.isStrict();
-
-            if(preventDuplicates){
-                if(Groups.player.contains(p -> Strings.stripColors(p.name).trim().equalsIgnoreCase(Strings.stripColors(packet.name).trim()))){
-                    con.kick(KickReason.nameInUse);
-                    return;
-                }
-
-                if(Groups.player.contains(player -> player.uuid().equals(packet.uuid) || player.usid().equals(packet.usid))){
+            for(var otherCon : net.getConnections()){
+                if(otherCon != con && uuid.equals(otherCon.uuid)){
                     con.uuid = packet.uuid;
                     con.kick(KickReason.idInUse);
                     return;
                 }
-
-                for(var otherCon : net.getConnections()){
-                    if(otherCon != con && uuid.equals(otherCon.uuid)){
-                        con.uuid = packet.uuid;
-                        con.kick(KickReason.idInUse);
-                        return;
-                    }
-                }
             }
+        }
 
-            packet.name = fixName(packet.name);
+        packet.name = fixName(packet.name);
 
-            if(packet.name.trim().length() <= 0){
-                con.kick(KickReason.nameEmpty);
-                return;
-            }
-
-            if(packet.locale == null){
-                packet.locale = "en";
-            }
+        if(packet.name.trim().length() <= 0){
+            con.kick(KickReason.nameEmpty);
+            return;
+        }
 
-            String ip = con.address;
+        if(packet.locale == null){
+            packet.locale = "en";
+        }
 
-            admins.updatePlayerJoined(uuid, ip, packet.name);
+        String ip = con.address;
 
-            if(packet.version != Version.build && Version.build != -1 && packet.version != -1){
-                con.kick(packet.version > Version.build ? KickReason.serverOutdated : KickReason.clientOutdated);
-                return;
-            }
+        admins.updatePlayerJoined(uuid, ip, packet.name);
 
-            if(packet.version == -1){
-                con.modclient = true;
-            }
+        if(packet.version != Version.build && Version.build != -1 && packet.version != -1){
+            con.kick(packet.version > Version.build ? KickReason.serverOutdated : KickReason.clientOutdated);
+            return;
+        }
 
-            Player player = Player.create();
-            player.admin = admins.isAdmin(uuid, packet.usid);
-            player.con = con;
-            player.con.usid = packet.usid;
-            player.con.uuid = uuid;
-            player.con.mobile = packet.mobile;
-            player.name = packet.name;
-            player.locale = packet.locale;
-            player.color.set(packet.color).a(1f);
-
-            //save admin ID but don't overwrite it
-            if(!player.admin && !info.admin){
-                info.adminUsid = packet.usid;
-            }
+        if(packet.version == -1){
+            con.modclient = true;
+        }
 
-            try{
-                writeBuffer.reset();
-                player.write(outputBuffer);
-            }catch(Throwable t){
-                con.kick(KickReason.nameEmpty);
-                err(t);
-                return;
-            }
+        Player player = Player.create();
+        player.admin = admins.isAdmin(uuid, packet.usid);
+        player.con = con;
+        player.con.usid = packet.usid;
+        player.con.uuid = uuid;
+        player.con.mobile = packet.mobile;
+        player.name = packet.name;
+        player.locale = packet.locale;
+        player.color.set(packet.color).a(1f);
+
+        //save admin ID but don't overwrite it
+        if(!player.admin && !info.admin){
+            info.adminUsid = packet.usid;
+        }
 
-            con.player = player;
+        try{
+            writeBuffer.reset();
+            player.write(outputBuffer);
+        }catch(Throwable t){
+            con.kick(KickReason.nameEmpty);
+            err(t);
+            return;
+        }
 
-            //playing in pvp mode automatically assigns players to teams
-            player.team(assignTeam(player));
+        con.player = player;
 
-            sendWorldData(player);
+        //playing in pvp mode automatically assigns players to teams
+        player.team(assignTeam(player));
 
-            platform.updateRPC();
+        sendWorldData(player);
 
-            Events.fire(new PlayerConnect(player));
-        });
+        platform.updateRPC();
 
-        registerCommands();
+        Events.fire(new PlayerConnect(player));
     }
 
     @Override
@@ -500,15 +565,71 @@ public class NetServer implements ApplicationListener{
         return assigner.assign(current, players);
     }
 
+    /** Sends world data to a player. If {@link Config#maxWorldTransfers} players are already loading the world, the player waits in a queue. */
     public void sendWorldData(Player player){
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        DeflaterOutputStream def = new FastDeflaterOutputStream(stream);
-        NetworkIO.writeWorld(player, def);
+        int max = Config.maxWorldTransfers.num();
+        if(max > 0 && worldTransfers.size >= max && !worldTransfers.containsKey(player.con)){
+            if(!worldQueue.contains(player)){
+                worldQueue.addLast(player);
+                debug("Queued world data for @ (@ / @), @ players waiting", player.name, player.con.address, player.uuid(), worldQueue.size);
+            }
+            return;
+        }
+
+        writeWorldData(player);
+    }
+
+    private void writeWorldData(Player player){
+        worldTransfers.put(player.con, Time.millis());
+
+        //the client discards all entities when loading a world
+        player.con.baselines.reset();
+
+        //building state in the cached data is allowed to be slightly out of date, block changes are not
+        boolean cached = worldDataCache != null && worldDataEpoch == worldEpoch && Time.timeSinceMillis(worldDataTime) < Config.worldDataCacheTime.num();
+        if(!cached){
+            worldDataCache = NetworkIO.writeWorldMap();
+            worldDataEpoch = worldEpoch;
+            worldDataTime = Time.millis();
+        }
+
+        //the shared map data is streamed directly, without being copied for each player
         WorldStream data = new WorldStream();
-        data.stream = new ByteArrayInputStream(stream.toByteArray());
+        data.parts = new byte[][]{NetworkIO.writeWorldHeader(player), worldDataCache};
         player.con.sendStream(data);
 
-        debug("Packed @ bytes of world data to @ (@ / @)", stream.size(), player.name, player.con.address, player.uuid());
+        debug("Packed @ bytes of world data to @ (@ / @)@", data.total(), player.name, player.con.address, player.uuid(), cached ? " [cached]" : "");
+    }
+
+    /** @return how many players are waiting for others to finish loading the world before receiving it. */
+    public int worldQueueSize(){
+        return worldQueue.size;
+    }
+
+    /** Starts sending world data to queued players once others have finished loading it. Transfers that take too long stop counting towards the limit. */
+    private void updateWorldTransfers(){
+        if(worldTransfers.size > 0){
+            var entries = worldTransfers.entries();
+            while(entries.hasNext()){
+                var entry = entries.next();
+                if(!entry.key.isConnected() || Time.timeSinceMillis(entry.value) > worldTransferTimeout){
+                    entries.remove();
+                }
+            }
+        }
+
+        int max = Config.maxWorldTransfers.num();
+        while(!worldQueue.isEmpty() && (max <= 0 || worldTransfers.size < max)){
+            Player player = worldQueue.removeFirst();
+            if(player.con == null || player.con.kicked || !player.con.isConnected()) continue;
+
+            writeWorldData(player);
+        }
+    }
+
+    /** Marks the cached world data as outdated. Call this after changing the map in a way that does not fire any tile change events. */
+    public void invalidateWorldData(){
+        worldEpoch++;
     }
 
     public void addPacketHandler(String type, Cons2<Player, String> handler){
@@ -636,6 +757,7 @@ public class NetServer implements ApplicationListener{
     public static void clientSnapshot(
     Player player,
     int snapshotID,
+    int entitySnapshotAck,
     int unitID,
     boolean dead,
     float x, float y,
@@ -664,6 +786,8 @@ public class NetServer implements ApplicationListener{
 
         if(con.lastReceivedClientTime == 0) con.lastReceivedClientTime = Time.millis() - 16;
 
+        con.baselines.acknowledge(entitySnapshotAck);
+
         con.viewX = viewX;
         con.viewY = viewY;
         con.viewWidth = viewWidth;
@@ -830,12 +954,28 @@ public class NetServer implements ApplicationListener{
         }
     }
 
+    @Remote(targets = Loc.client, priority = PacketPriority.high)
+    public static void snapshotDictionaryAck(Player player, int id){
+        if(player.con == null) return;
+
+        var dictionary = netServer.snapshotDictionary;
+        if(dictionary != null && dictionary.id == id && Config.snapshotDictionary.bool()){
+            player.con.dictionary = dictionary;
+        }
+    }
+
     @Remote(targets = Loc.client, priority = PacketPriority.high)
     public static void connectConfirm(Player player){
+        //the world has been loaded, so the next player can receive it
+        netServer.worldTransfers.remove(player.con);
+
         if(player.con.kicked) return;
 
         player.add();
 
+        //buildings that changed while the world was loading are only sent again once they change, so send everything once
+        if(player.con != null) netServer.queueBlockCatchup(player.con);
+
         Events.fire(new PlayerConnectionConfirmed(player));
 
         if(player.con == null || player.con.hasConnected) return;
@@ -898,6 +1038,24 @@ public class NetServer implements ApplicationListener{
 
             sync();
         }
+
+        if(net.server()){
+            for(int i = 0; i < connectsPerFrame && !connectQueue.isEmpty();){
+                PendingConnect next = connectQueue.removeFirst();
+                //connections that are already gone are cheap to skip
+                if(!next.con.isConnected()) continue;
+
+                handleConnect(next.con, next.packet);
+                i++;
+            }
+
+            updateWorldTransfers();
+
+            //send packets that were queued during this frame
+            for(NetConnection con : net.getConnections()){
+                con.flush();
+            }
+        }
     }
 
     //TODO I don't like where this is, move somewhere else?
@@ -926,31 +1084,108 @@ public class NetServer implements ApplicationListener{
         }
     }
 
-    /** Sends a block snapshot to all players. */
+    /**
+     * Sends the next slice of buildings that have changed since they were last synced to all players.
+     * All buildings are checked once every {@link #blockSyncSlices} calls, and each building is refreshed periodically even if it has not changed.
+     * Block snapshots are unreliable; a lost one is corrected when the building changes again, or on its next refresh.
+     * Connections that were just confirmed also receive the next slice of all buildings, until they have received every building once.
+     */
     public void writeBlockSnapshots() throws IOException{
         syncStream.reset();
 
+        int total = Groups.build.size();
+        int amount = (total + blockSyncSlices - 1) / blockSyncSlices;
         short sent = 0;
-        for(Building entity : Groups.build){
+
+        for(int i = 0; i < amount; i++){
+            if(blockSyncIndex >= total){
+                blockSyncIndex = 0;
+                blockSyncCycle++;
+            }
+
+            Building entity = Groups.build.index(blockSyncIndex++);
             if(!entity.block.sync) continue;
-            sent++;
 
-            dataStream.writeInt(entity.pos());
-            dataStream.writeShort(entity.block.id);
-            entity.writeSync(Writes.get(dataStream));
+            blockSyncStream.reset();
+            entity.writeSync(Writes.get(blockDataStream));
 
-            if(syncStream.size() > maxSnapshotSize){
-                dataStream.close();
-                Call.blockSnapshot(sent, syncStream.toByteArray());
-                sent = 0;
-                syncStream.reset();
-            }
+            //skip buildings that have not changed, unless it is their turn to be refreshed
+            int hash = hash(blockSyncStream.getBytes(), blockSyncStream.size());
+            if(hash == entity.syncHash && (blockSyncCycle + entity.id) % blockRefreshCycles != 0) continue;
+            entity.syncHash = hash;
+
+            sent = writeBlock(null, sent, entity);
         }
 
         if(sent > 0){
-            dataStream.close();
+            sendBlocks(null, sent);
+        }
+
+        for(int c = 0; c < blockCatchups.size; c++){
+            BlockCatchup catchup = blockCatchups.get(c);
+            if(!catchup.con.isConnected() || catchup.index >= total){
+                blockCatchups.remove(c--);
+                continue;
+            }
+
+            syncStream.reset();
+            sent = 0;
+            for(int i = 0; i < amount && catchup.index < total; i++){
+                Building entity = Groups.build.index(catchup.index++);
+                if(!entity.block.sync) continue;
+
+                blockSyncStream.reset();
+                entity.writeSync(Writes.get(blockDataStream));
+                sent = writeBlock(catchup.con, sent, entity);
+            }
+
+            if(sent > 0){
+                sendBlocks(catchup.con, sent);
+            }
+        }
+    }
+
+    /** Sends every building to a connection over the next block sync interval. */
+    public void queueBlockCatchup(NetConnection con){
+        BlockCatchup catchup = blockCatchups.find(c -> c.con == con);
+        if(catchup != null){
+            catchup.index = 0;
+        }else{
+            blockCatchups.add(new BlockCatchup(con));
+        }
+    }
+
+    /** Adds a building with the sync data in {@link #blockSyncStream} to the block snapshot, and sends it once it is full. @return the amount of buildings in the snapshot. */
+    private short writeBlock(@Nullable NetConnection con, short sent, Building entity) throws IOException{
+        dataStream.writeInt(entity.pos());
+        dataStream.writeShort(entity.block.id);
+        dataStream.write(blockSyncStream.getBytes(), 0, blockSyncStream.size());
+        sent++;
+
+        if(syncStream.size() > maxSnapshotSize){
+            sendBlocks(con, sent);
+            return 0;
+        }
+        return sent;
+    }
+
+    /** Sends the block snapshot that was written to a connection, or to all of them if it is null. */
+    private void sendBlocks(@Nullable NetConnection con, short sent) throws IOException{
+        dataStream.close();
+        if(con == null){
             Call.blockSnapshot(sent, syncStream.toByteArray());
+        }else{
+            Call.blockSnapshot(con, sent, syncStream.toByteArray());
+        }
+        syncStream.reset();
+    }
+
+    private static int hash(byte[] bytes, int length){
+        int result = 1;
+        for(int i = 0; i < length; i++){
+            result = 31 * result + bytes[i];
         }
+        return result;
     }
 
     public void writeEntitySnapshot(Player player) throws IOException{
@@ -971,51 +1206,154 @@ public class NetServer implements ApplicationListener{
 
         dataStream.close();
 
+        NetConnection con = player.con;
+        snapshotBatch = Config.asyncSnapshots.bool() ? snapshotPipeline.begin(con) : null;
+
+        updateDictionary(con);
+
         //write basic state data.
-        Call.stateSnapshot(player.con, state.wavetime, state.wave, state.enemies, state.isPaused(), state.gameOver,
-        universe.seconds(), tps, GlobalVars.rand.seed0, GlobalVars.rand.seed1, syncStream.toByteArray());
+        var stateSnapshot = new StateSnapshotCallPacket();
+        stateSnapshot.waveTime = state.wavetime;
+        stateSnapshot.wave = state.wave;
+        stateSnapshot.enemies = state.enemies;
+        stateSnapshot.paused = state.isPaused();
+        stateSnapshot.gameOver = state.gameOver;
+        stateSnapshot.timeData = universe.seconds();
+        stateSnapshot.tps = tps;
+        stateSnapshot.rand0 = GlobalVars.rand.seed0;
+        stateSnapshot.rand1 = GlobalVars.rand.seed1;
+        stateSnapshot.coreData = syncStream.toByteArray();
+        sampleDictionary(stateSnapshot.coreData, stateSnapshot.coreData.length);
+        sendSnapshot(con, stateSnapshot);
 
         syncStream.reset();
 
         hiddenIds.clear();
-        int sent = 0;
+        SnapshotBaselines baselines = con.baselines;
+        boolean deltas = Config.deltaSnapshots.bool();
+        int snapshotID = con.snapshotsSent, sent = 0;
+        short chunk = 0;
+        //entities outside of the view are only sent every few snapshots; clients that have not reported their view yet get everything
+        int distantInterval = con.viewWidth > 0 && con.viewHeight > 0 ? Math.max(Config.distantSyncInterval.num(), 1) : 1;
+        syncView.setCentered(con.viewX, con.viewY, con.viewWidth + syncViewMargin * 2f, con.viewHeight + syncViewMargin * 2f);
+
+        baselines.begin(snapshotID, syncDeltas.frame());
 
         for(Syncc entity : Groups.sync){
             //TODO write to special list
             if(entity.isSyncHidden(player)){
                 hiddenIds.add(entity.id());
+                baselines.forget(entity.id());
                 continue;
             }
 
-            //write all entities now
-            dataStream.writeInt(entity.id()); //write id
-            dataStream.writeByte(entity.classId() & 0xFF); //write type ID
-            entity.beforeWrite();
-            entity.writeSync(Writes.get(dataStream)); //write entity
-
-            sent++;
+            //stagger distant entities by ID, so each snapshot contains a similar amount of them
+            if(distantInterval > 1 && (snapshotID + entity.id()) % distantInterval != 0 && entity != player && entity != player.unit() &&
+                entity instanceof Posc pos && !syncView.contains(pos.x(), pos.y())){
+                continue;
+            }
 
+            //flush before writing, so that the final chunk is always the one marked as last
             if(syncStream.size() > maxSnapshotSize){
                 dataStream.close();
-                Call.entitySnapshot(player.con, (short)sent, syncStream.toByteArray());
+                sendEntitySnapshot(con, snapshotID, chunk++, false, sent);
                 sent = 0;
                 syncStream.reset();
             }
+
+            syncDeltas.update(entity);
+            int mask = deltas ? syncDeltas.changedSince(entity, baselines.baseFrame(entity.id())) : -1;
+
+            //write all entities now
+            dataStream.writeInt(entity.id()); //write id
+            dataStream.writeByte(entity.classId() & 0xFF); //write type ID
+            dataStream.writeInt(mask); //write changed fields
+            syncDeltas.write(entity, mask, dataStream); //write entity, serialized only once per frame
+
+            baselines.sent(entity.id());
+            sent++;
         }
 
         if(sent > 0){
             dataStream.close();
 
-            Call.entitySnapshot(player.con, (short)sent, syncStream.toByteArray());
+            sendEntitySnapshot(con, snapshotID, chunk, true, sent);
         }
 
         if(hiddenIds.size > 0){
-            Call.hiddenSnapshot(player.con, hiddenIds);
+            var hidden = new HiddenSnapshotCallPacket();
+            //copied, as the packet may be written on another thread
+            hidden.ids = new IntSeq(hiddenIds);
+            sendSnapshot(con, hidden);
+        }
+
+        if(snapshotBatch != null){
+            snapshotPipeline.submit(con);
+            snapshotBatch = null;
         }
 
         player.con.snapshotsSent++;
     }
 
+    private void sendEntitySnapshot(NetConnection con, int snapshotID, short chunk, boolean last, int amount){
+        var packet = new EntitySnapshotPacket();
+        packet.snapshotID = snapshotID;
+        //lets clients apply snapshots at the pace they were sent at
+        packet.time = (int)con.syncTime;
+        packet.chunk = chunk;
+        packet.last = last;
+        packet.amount = (short)amount;
+        packet.length = syncStream.size();
+        sampleDictionary(syncStream.getBytes(), packet.length);
+
+        if(snapshotBatch != null){
+            //the stream is reused before the batch is sent, so the data has to be copied
+            packet.buffer = snapshotPipeline.obtainBuffer(packet.length);
+            packet.pooled = true;
+            System.arraycopy(syncStream.getBytes(), 0, packet.buffer, 0, packet.length);
+        }else{
+            //sending serializes the packet immediately, so it can be written straight from the stream
+            packet.buffer = syncStream.getBytes();
+        }
+        sendSnapshot(con, packet);
+    }
+
+    /** Sends the current packet dictionary to a connection if it has not received it yet. */
+    private void updateDictionary(NetConnection con){
+        if(!Config.snapshotDictionary.bool()){
+            con.dictionary = null;
+            return;
+        }
+
+        if(snapshotDictionary != null && con.supportsDictionary && con.dictionarySent != snapshotDictionary.id){
+            con.dictionarySent = snapshotDictionary.id;
+            Call.snapshotDictionary(con, snapshotDictionary.id, snapshotDictionary.data);
+        }
+    }
+
+    /** Adds the start of a snapshot to the dictionary sample, and builds the dictionary once there is enough data. */
+    private void sampleDictionary(byte[] data, int length){
+        if(snapshotDictionary != null || !Config.snapshotDictionary.bool()) return;
+
+        //only the start of each snapshot is used, so the sample covers many snapshots
+        dictionarySample.write(data, 0, Math.min(Math.min(length, 512), PacketDictionary.maxSize - dictionarySample.size()));
+
+        if(dictionarySample.size() >= PacketDictionary.maxSize){
+            snapshotDictionary = new PacketDictionary(nextDictionaryId, dictionarySample.toByteArray());
+            nextDictionaryId = (nextDictionaryId + 1) & 0xff;
+            dictionarySample.reset();
+        }
+    }
+
+    /** Sends an unreliable snapshot packet, either directly or through the snapshot pipeline. */
+    private void sendSnapshot(NetConnection con, Packet packet){
+        if(snapshotBatch != null){
+            snapshotBatch.add(packet);
+        }else{
+            con.send(packet, false);
+        }
+    }
+
     public String fixName(String name){
         name = name.trim().replace("\n", "").replace("\t", "");
         if(name.equals("[") || name.equals("]")){
@@ -1068,6 +1406,7 @@ public class NetServer implements ApplicationListener{
     void sync(){
         try{
             int interval = Config.snapshotInterval.num();
+            syncDeltas.nextFrame();
             Groups.player.each(p -> !p.isLocal(), player -> {
                 if(player.con == null || !player.con.isConnected()){
                     onDisconnect(player, "disappeared");
@@ -1087,7 +1426,14 @@ public class NetServer implements ApplicationListener{
                 }
             });
 
-            if(Groups.player.size() > 0 && Core.settings.getBool("blocksync") && timer.get(timerBlockSync, blockSyncTime)){
+            if(timer.get(timerPruneDeltas, pruneDeltasTime)){
+                syncDeltas.prune();
+                for(NetConnection con : net.getConnections()){
+                    con.baselines.prune();
+                }
+            }
+
+            if(Groups.player.size() > 0 && Core.settings.getBool("blocksync") && timer.get(timerBlockSync, blockSyncTime / blockSyncSlices)){
                 writeBlockSnapshots();
             }
 
@@ -1166,6 +1512,26 @@ public class NetServer implements ApplicationListener{
         }
     }
 
+    static class BlockCatchup{
+        final NetConnection con;
+        /** Index of the next building to send in Groups.build. */
+        int index;
+
+        BlockCatchup(NetConnection con){
+            this.con = con;
+        }
+    }
+
+    static class PendingConnect{
+        final NetConnection con;
+        final ConnectPacket packet;
+
+        PendingConnect(NetConnection con, ConnectPacket packet){
+            this.con = con;
+            this.packet = packet;
+        }
+    }
+
     public interface TeamAssigner{
         Team assign(Player player, Iterable<Player> players);
     }
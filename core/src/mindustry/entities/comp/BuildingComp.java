@@ -74,6 +74,9 @@ abstract class BuildingComp implements Posc, Teamc, Healthc, Buildingc, Timerc,
     transient long visibleFlags;
     transient boolean wasVisible; //used only by the block renderer when fog is on (TODO replace with discovered check?)
 
+    /** Hash of the sync data last sent in a block snapshot. Used to skip buildings whose state has not changed. */
+    transient int syncHash;
+
     transient boolean enabled = true;
     transient @Nullable Building lastDisabler;
 
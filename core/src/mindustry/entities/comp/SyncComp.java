@@ -16,6 +16,14 @@ abstract class SyncComp implements Entityc{
     void snapInterpolation(){}
     void readSync(Reads read){}
     void writeSync(Writes write){}
+    /** Reads only the fields whose bits are set in the mask. Bits follow the writeSync field order. */
+    void readSyncDelta(Reads read, int mask){}
+    /** Writes only the fields whose bits are set in the mask. Bits follow the writeSync field order. */
+    void writeSyncDelta(Writes write, int mask){}
+    /** @return the amount of fields written in writeSync, which is also the number of usable delta mask bits. */
+    int syncFields(){
+        return 0;
+    }
     void readSyncManual(FloatBuffer buffer){}
     void writeSyncManual(FloatBuffer buffer){}
     void afterSync(){}
@@ -0,0 +1,344 @@
+package mindustry.io;
+
+import arc.files.*;
+import arc.struct.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+import static mindustry.Vars.*;
+
+/**
+ * A save container where the uncompressed save data is split into blocks at region boundaries, and each block is compressed on its own.
+ * This allows saves to be compressed and decompressed on multiple threads. Large regions are split into multiple blocks.
+ * <p>
+ * The file starts with an uncompressed index of all blocks, followed by their data.
+ * Concatenating the uncompressed blocks in order results in the same data as a regular save.
+ * The meta block is stored uncompressed, so save metadata can be read with {@link #readBlock(Fi, String)} without decompressing anything.
+ */
+public class ChunkedSave{
+    public static final byte[] header = {'M', 'S', 'V', 'Z'};
+    public static final int version = 1;
+    public static final int compressionNone = 0, compressionDeflate = 1;
+    /** Names of the regions written by {@link SaveVersion#write(DataOutputStream, StringMap)}, in order. */
+    public static final String[] regionNames = {"meta", "content", "map", "entities", "markers", "custom"};
+
+    /** Regions larger than this are split into multiple blocks, so they can be compressed in parallel. */
+    private static final int maxBlockSize = 1024 * 1024;
+    /** Maximum size of the index that is read when looking up a single block. */
+    private static final int maxIndexSize = 1024 * 64;
+
+    /** @return whether a file is a chunked save. */
+    public static boolean isChunked(Fi file){
+        if(!file.exists()) return false;
+
+        try(InputStream stream = file.read()){
+            byte[] bytes = new byte[header.length];
+            return stream.read(bytes) == bytes.length && Arrays.equals(bytes, header);
+        }catch(IOException e){
+            return false;
+        }
+    }
+
+    /** Compresses uncompressed save data in parallel and writes it to a file, replacing it once it is fully written. */
+    public static void write(Fi file, byte[] data) throws IOException{
+        Seq<Block> blocks = split(data);
+
+        Seq<Future<byte[]>> results = new Seq<>();
+        for(Block block : blocks){
+            results.add(mainExecutor.submit(() -> compress(data, block)));
+        }
+
+        Fi temp = SaveIO.tempFileFor(file);
+        try(DataOutputStream out = new DataOutputStream(temp.write(false, bufferSize))){
+            byte[][] compressed = new byte[blocks.size][];
+            for(int i = 0; i < blocks.size; i++){
+                compressed[i] = results.get(i).get();
+                blocks.get(i).length = compressed[i].length;
+            }
+
+            out.write(header);
+            out.writeInt(version);
+            out.writeInt(blocks.size);
+            for(Block block : blocks){
+                out.writeUTF(block.name);
+                out.writeByte(block.compression);
+                out.writeInt(block.rawLength);
+                out.writeInt(block.length);
+            }
+
+            for(byte[] bytes : compressed){
+                out.write(bytes);
+            }
+        }catch(InterruptedException | ExecutionException e){
+            throw new IOException(e);
+        }
+
+        SaveIO.replace(temp, file);
+    }
+
+    /** Reads and decompresses all blocks of a chunked save in parallel. */
+    public static byte[] read(Fi file) throws IOException{
+        Seq<Block> blocks;
+        byte[] bytes = file.readBytes();
+
+        try(DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes))){
+            blocks = readIndex(stream);
+            int indexLength = bytes.length - stream.available();
+            for(Block block : blocks){
+                block.offset += indexLength;
+            }
+        }
+
+        int length = 0;
+        for(Block block : blocks){
+            length += block.rawLength;
+        }
+
+        byte[] data = new byte[length];
+        Seq<Future<?>> results = new Seq<>();
+        int offset = 0;
+        for(Block block : blocks){
+            int target = offset;
+            results.add(mainExecutor.submit(() -> {
+                decompress(bytes, block, data, target);
+                return null;
+            }));
+            offset += block.rawLength;
+        }
+
+        try{
+            for(var result : results){
+                result.get();
+            }
+        }catch(InterruptedException | ExecutionException e){
+            throw new IOException("Error reading chunked save.", e);
+        }
+
+        return data;
+    }
+
+    /** @return a stream that decompresses the blocks of a chunked save one after another, as they are read. Useful when only the start of the save is needed. */
+    public static InputStream stream(Fi file) throws IOException{
+        DataInputStream input = new DataInputStream(file.read(bufferSize));
+        Seq<Block> blocks;
+        try{
+            blocks = readIndex(input);
+        }catch(IOException e){
+            input.close();
+            throw e;
+        }
+
+        Iterator<Block> iterator = blocks.iterator();
+
+        return new SequenceInputStream(new Enumeration<>(){
+            BlockInputStream last;
+
+            @Override
+            public boolean hasMoreElements(){
+                return iterator.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement(){
+                try{
+                    //skip anything the decompressor did not need
+                    if(last != null) last.skipRest();
+                }catch(IOException e){
+                    throw new UncheckedIOException(e);
+                }
+
+                Block block = iterator.next();
+                last = new BlockInputStream(input, block.length, !iterator.hasNext());
+                return block.compression == compressionDeflate ? new InflaterInputStream(last) : last;
+            }
+        });
+    }
+
+    /**
+     * Reads a single block of a chunked save, without reading or decompressing any other blocks.
+     * Positional channel reads are used instead of memory mapping, as mapped files stay locked on some platforms until they are garbage collected.
+     */
+    public static byte[] readBlock(Fi file, String name) throws IOException{
+        try(RandomAccessFile access = new RandomAccessFile(file.file(), "r"); FileChannel channel = access.getChannel()){
+            byte[] start = new byte[(int)Math.min(channel.size(), maxIndexSize)];
+            readFully(channel, ByteBuffer.wrap(start), 0);
+
+            DataInputStream stream = new DataInputStream(new ByteArrayInputStream(start));
+            Seq<Block> blocks = readIndex(stream);
+            int indexLength = start.length - stream.available();
+
+            Block block = blocks.find(b -> b.name.equals(name));
+            if(block == null) throw new IOException("Chunked save has no block named \"" + name + "\".");
+
+            byte[] bytes = new byte[block.length];
+            readFully(channel, ByteBuffer.wrap(bytes), indexLength + block.offset);
+
+            if(block.compression == compressionNone) return bytes;
+
+            byte[] data = new byte[block.rawLength];
+            block.offset = 0;
+            decompress(bytes, block, data, 0);
+            return data;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException{
+        while(buffer.hasRemaining()){
+            int read = channel.read(buffer, position + buffer.position());
+            if(read < 0) throw new EOFException();
+        }
+    }
+
+    /** Reads the index at the start of a chunked save. Block offsets are relative to the end of the index. */
+    public static Seq<Block> readIndex(DataInputStream stream) throws IOException{
+        SaveIO.readHeader(stream, header);
+        int fileVersion = stream.readInt();
+        if(fileVersion != version) throw new IOException("Unknown chunked save version: " + fileVersion);
+
+        int amount = stream.readInt();
+        Seq<Block> blocks = new Seq<>(amount);
+        int offset = 0;
+        for(int i = 0; i < amount; i++){
+            Block block = new Block();
+            block.name = stream.readUTF();
+            block.compression = stream.readByte();
+            block.rawLength = stream.readInt();
+            block.length = stream.readInt();
+            block.offset = offset;
+            offset += block.length;
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    /** Splits uncompressed save data into blocks. The header is included in the meta block. */
+    static Seq<Block> split(byte[] data){
+        Seq<Block> blocks = new Seq<>();
+        int offset = SaveIO.header.length + 4, start = 0, region = 0;
+
+        while(offset < data.length){
+            int length = readInt(data, offset);
+            int end = offset + 4 + length;
+            String name = region < regionNames.length ? regionNames[region] : "region" + region;
+
+            for(int from = start, part = 0; from < end; from += maxBlockSize, part++){
+                Block block = new Block();
+                block.name = part == 0 ? name : name + "-" + part;
+                //metadata is tiny and read often, so it is not compressed
+                block.compression = region == 0 ? compressionNone : compressionDeflate;
+                block.offset = from;
+                block.rawLength = Math.min(maxBlockSize, end - from);
+                blocks.add(block);
+            }
+
+            start = offset = end;
+            region++;
+        }
+
+        return blocks;
+    }
+
+    static byte[] compress(byte[] data, Block block) throws IOException{
+        if(block.compression == compressionNone){
+            return Arrays.copyOfRange(data, block.offset, block.offset + block.rawLength);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(block.rawLength / 4 + 64);
+        try(DeflaterOutputStream out = new DeflaterOutputStream(bytes)){
+            out.write(data, block.offset, block.rawLength);
+        }
+        return bytes.toByteArray();
+    }
+
+    static void decompress(byte[] bytes, Block block, byte[] output, int offset) throws IOException{
+        if(block.compression == compressionNone){
+            System.arraycopy(bytes, block.offset, output, offset, block.rawLength);
+            return;
+        }
+
+        Inflater inflater = new Inflater();
+        try{
+            inflater.setInput(bytes, block.offset, block.length);
+            int read = 0;
+            while(read < block.rawLength && !inflater.finished()){
+                int amount = inflater.inflate(output, offset + read, block.rawLength - read);
+                if(amount == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                read += amount;
+            }
+            if(read != block.rawLength){
+                throw new IOException("Block \"" + block.name + "\" length mismatch. Expected: " + block.rawLength + "; Actual: " + read);
+            }
+        }catch(DataFormatException e){
+            throw new IOException("Block \"" + block.name + "\" is corrupt.", e);
+        }finally{
+            inflater.end();
+        }
+    }
+
+    static int readInt(byte[] data, int offset){
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16) | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    public static class Block{
+        public String name;
+        public int compression;
+        /** Offset of this block; in the file when reading, or in the uncompressed data when writing. */
+        public int offset;
+        public int rawLength, length;
+    }
+
+    /** Reads at most a certain amount of bytes from a stream shared by all blocks. */
+    static class BlockInputStream extends FilterInputStream{
+        int remaining;
+        final boolean closeParent;
+
+        BlockInputStream(InputStream in, int length, boolean closeParent){
+            super(in);
+            this.remaining = length;
+            this.closeParent = closeParent;
+        }
+
+        @Override
+        public int read() throws IOException{
+            if(remaining <= 0) return -1;
+            int result = in.read();
+            if(result != -1) remaining--;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException{
+            if(remaining <= 0) return -1;
+            int result = in.read(b, off, Math.min(len, remaining));
+            if(result > 0) remaining -= result;
+            return result;
+        }
+
+        @Override
+        public int available() throws IOException{
+            return Math.min(in.available(), remaining);
+        }
+
+        void skipRest() throws IOException{
+            while(remaining > 0){
+                long skipped = in.skip(remaining);
+                if(skipped <= 0){
+                    if(in.read() == -1) throw new EOFException();
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        }
+
+        @Override
+        public void close() throws IOException{
+            //the underlying stream is shared with the next block
+            if(closeParent) in.close();
+        }
+    }
+}
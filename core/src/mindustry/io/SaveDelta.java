@@ -0,0 +1,256 @@
+package mindustry.io;
+
+import arc.files.*;
+import arc.math.*;
+import arc.struct.*;
+import arc.util.*;
+import arc.util.io.*;
+
+import java.io.*;
+
+import static mindustry.Vars.*;
+
+/**
+ * Differential saves, which store only the parts of a save that changed since a full base save.
+ * Most of a save (floors, ores, walls and idle buildings) is the same between autosaves, so deltas are usually much smaller.
+ * <p>
+ * Uncompressed save data is split into chunks at content-defined boundaries, so an insertion or removal only changes the chunks around it.
+ * Chunks that exist in the base are stored as references to it; everything else is stored as is.
+ * <p>
+ * A delta file starts with the same header and meta region as a regular save, so its metadata can be read without the base.
+ * Where the content region would start, it has a length of -1, followed by the name of the base file and the list of chunks.
+ */
+public class SaveDelta{
+    /** Written where the length of the content region would be in a regular save. */
+    public static final int marker = -1;
+
+    private static final int minChunk = 512, maxChunk = 16384, chunkMask = 2048 - 1;
+    private static final int opEnd = 0, opCopy = 1, opLiteral = 2;
+    private static final long[] gear = new long[256];
+
+    static{
+        Rand rand = new Rand(0x5a7e_de17aL);
+        for(int i = 0; i < gear.length; i++){
+            gear[i] = rand.nextLong();
+        }
+    }
+
+    /** A full save that deltas can be written against. Only used on one thread at a time. */
+    public static class Base{
+        public final Fi file;
+        public final byte[] data;
+        private long hash;
+        private @Nullable LongMap<int[]> chunks;
+
+        /** @param data the uncompressed data of the save that was written to the file. */
+        public Base(Fi file, byte[] data){
+            this.file = file;
+            this.data = data;
+        }
+
+        /** @return a hash of all data, computed when first needed. */
+        long hash(){
+            if(hash == 0) hash = SaveDelta.hash(data, 0, data.length);
+            return hash;
+        }
+
+        /** @return the offset and length of every chunk of this save, by hash. */
+        LongMap<int[]> chunks(){
+            if(chunks == null){
+                chunks = new LongMap<>();
+                int offset = 0;
+                while(offset < data.length){
+                    int end = nextBoundary(data, offset);
+                    chunks.put(hash(data, offset, end), new int[]{offset, end - offset});
+                    offset = end;
+                }
+            }
+            return chunks;
+        }
+    }
+
+    /** @return whether a stream of uncompressed save data is a delta. The stream is left at its original position. */
+    public static boolean isDelta(BufferedInputStream input) throws IOException{
+        //the meta region is small, so buffering it is fine
+        input.mark(1024 * 1024);
+        try{
+            DataInputStream stream = new DataInputStream(input);
+            stream.skipBytes(SaveIO.header.length + 4);
+            int metaLength = stream.readInt();
+            if(stream.skipBytes(metaLength) != metaLength) return false;
+            return stream.readInt() == marker;
+        }catch(EOFException e){
+            return false;
+        }finally{
+            input.reset();
+        }
+    }
+
+    /** @return the name of the base save of a delta file, or null if it is not a delta. */
+    public static @Nullable String baseName(Fi file){
+        try(BufferedInputStream input = new BufferedInputStream(SaveIO.inflate(file))){
+            if(!isDelta(input)) return null;
+            DataInputStream stream = new DataInputStream(input);
+            readPrefix(stream);
+            stream.readInt();
+            return stream.readUTF();
+        }catch(IOException e){
+            return null;
+        }
+    }
+
+    /** Writes the difference between uncompressed save data and a base save to a file, replacing it once it is fully written. */
+    public static void write(Fi file, Base base, byte[] data) throws IOException{
+        LongMap<int[]> chunks = base.chunks();
+
+        Fi temp = SaveIO.tempFileFor(file);
+        try(DataOutputStream out = new DataOutputStream(new FastDeflaterOutputStream(temp.write(false, bufferSize)))){
+            //copy of the header and meta, so this can be read like a regular save's metadata
+            int prefix = prefixLength(data);
+            out.write(data, 0, prefix);
+
+            out.writeInt(marker);
+            out.writeUTF(base.file.name());
+            out.writeInt(base.data.length);
+            out.writeLong(base.hash());
+            out.writeInt(data.length);
+
+            //pending operation, merged with the next chunk if possible
+            int type = opEnd, from = 0, length = 0;
+
+            int offset = prefix;
+            while(offset < data.length){
+                int end = nextBoundary(data, offset);
+                int[] chunk = chunks.get(hash(data, offset, end));
+                boolean found = chunk != null && chunk[1] == end - offset && equal(base.data, chunk[0], data, offset, end - offset);
+
+                if(found && type == opCopy && from + length == chunk[0]){
+                    length += chunk[1];
+                }else if(!found && type == opLiteral){
+                    length += end - offset;
+                }else{
+                    writeOp(out, data, type, from, length);
+                    type = found ? opCopy : opLiteral;
+                    from = found ? chunk[0] : offset;
+                    length = end - offset;
+                }
+
+                offset = end;
+            }
+
+            writeOp(out, data, type, from, length);
+            out.writeByte(opEnd);
+        }
+        SaveIO.replace(temp, file);
+    }
+
+    /** Reconstructs the uncompressed save data of a delta file by applying it to its base save. */
+    public static byte[] read(Fi file, InputStream input) throws IOException{
+        DataInputStream stream = new DataInputStream(input);
+        byte[] prefix = readPrefix(stream);
+
+        if(stream.readInt() != marker) throw new IOException("Not a delta save: " + file.name());
+
+        Fi baseFile = file.sibling(stream.readUTF());
+        int baseLength = stream.readInt();
+        long baseHash = stream.readLong();
+        int length = stream.readInt();
+
+        if(!baseFile.exists()) throw new IOException("Base save of delta save '" + file.name() + "' is missing: " + baseFile.name());
+
+        byte[] base = new byte[baseLength];
+        boolean complete;
+        try(DataInputStream in = new DataInputStream(SaveIO.read(baseFile))){
+            in.readFully(base);
+            complete = in.read() == -1;
+        }catch(EOFException e){
+            complete = false;
+        }
+        if(!complete || hash(base, 0, base.length) != baseHash){
+            throw new IOException("Base save of delta save '" + file.name() + "' has changed: " + baseFile.name());
+        }
+
+        byte[] data = new byte[length];
+        System.arraycopy(prefix, 0, data, 0, prefix.length);
+        int offset = prefix.length;
+
+        while(true){
+            int type = stream.readByte();
+            if(type == opEnd) break;
+
+            if(type == opCopy){
+                int from = stream.readInt(), amount = stream.readInt();
+                System.arraycopy(base, from, data, offset, amount);
+                offset += amount;
+            }else if(type == opLiteral){
+                int amount = stream.readInt();
+                stream.readFully(data, offset, amount);
+                offset += amount;
+            }else{
+                throw new IOException("Invalid delta operation: " + type);
+            }
+        }
+
+        if(offset != length) throw new IOException("Delta save length mismatch. Expected: " + length + "; Actual: " + offset);
+
+        return data;
+    }
+
+    private static void writeOp(DataOutputStream out, byte[] data, int type, int from, int length) throws IOException{
+        if(type == opCopy){
+            out.writeByte(opCopy);
+            out.writeInt(from);
+            out.writeInt(length);
+        }else if(type == opLiteral){
+            out.writeByte(opLiteral);
+            out.writeInt(length);
+            out.write(data, from, length);
+        }
+    }
+
+    /** @return length of the save header, version and meta region at the start of uncompressed save data. */
+    private static int prefixLength(byte[] data){
+        int offset = SaveIO.header.length + 4;
+        int metaLength = ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16) | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+        return offset + 4 + metaLength;
+    }
+
+    private static byte[] readPrefix(DataInputStream stream) throws IOException{
+        byte[] start = new byte[SaveIO.header.length + 8];
+        stream.readFully(start);
+        byte[] prefix = new byte[prefixLength(start)];
+        System.arraycopy(start, 0, prefix, 0, start.length);
+        stream.readFully(prefix, start.length, prefix.length - start.length);
+        return prefix;
+    }
+
+    /** @return the end of the chunk starting at the offset, using a gear rolling hash. */
+    private static int nextBoundary(byte[] data, int offset){
+        int end = Math.min(offset + maxChunk, data.length);
+        long hash = 0;
+        for(int i = offset; i < end; i++){
+            hash = (hash << 1) + gear[data[i] & 0xff];
+            if(i - offset >= minChunk && (hash & chunkMask) == 0){
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /** 64-bit FNV-1a hash. */
+    private static long hash(byte[] data, int from, int to){
+        long hash = 0xcbf29ce484222325L;
+        for(int i = from; i < to; i++){
+            hash ^= data[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static boolean equal(byte[] a, int aOffset, byte[] b, int bOffset, int length){
+        for(int i = 0; i < length; i++){
+            if(a[aOffset + i] != b[bOffset + i]) return false;
+        }
+        return true;
+    }
+}
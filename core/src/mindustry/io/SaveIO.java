@@ -2,6 +2,7 @@ package mindustry.io;
 
 import arc.*;
 import arc.files.*;
+import arc.func.*;
 import arc.struct.*;
 import arc.util.*;
 import arc.util.io.*;
@@ -12,6 +13,7 @@ import mindustry.world.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.*;
 
 import static mindustry.Vars.*;
@@ -22,6 +24,9 @@ public class SaveIO{
     public static final IntMap<SaveVersion> versions = new IntMap<>();
     public static final Seq<SaveVersion> versionArray = Seq.with(new Save1(), new Save2(), new Save3(), new Save4(), new Save5(), new Save6(), new Save7(), new Save8());
 
+    /** Writes saves captured with {@link #saveAsync(Fi, Cons)} in order. Created when first used. */
+    private static @Nullable ExecutorService writeExecutor;
+
     static{
         for(SaveVersion version : versionArray){
             versions.put(version.version, version);
@@ -40,19 +45,146 @@ public class SaveIO{
         boolean exists = file.exists();
         if(exists) file.moveTo(backupFileFor(file));
         try{
-            write(file);
+            writeCaptured(file, capture(null));
         }catch(Throwable e){
             if(exists) backupFileFor(file).moveTo(file);
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Saves the current state to a file without blocking the main thread for compression and I/O.
+     * The state is captured on the calling thread, then compressed and written on a background thread.
+     * @param done called on the main thread once writing is done, with the error that occurred, or null if it succeeded.
+     */
+    public static void saveAsync(Fi file, @Nullable Cons<Throwable> done){
+        byte[] data = capture(null);
+        writeAsync(() -> writeCaptured(file, data), done);
+    }
+
+    /**
+     * Runs a task on the background thread that writes saves, after all previously submitted saves have been written.
+     * @param done called on the main thread once the task is done, with the error that occurred, or null if it succeeded.
+     */
+    public static void writeAsync(IOTask task, @Nullable Cons<Throwable> done){
+        if(writeExecutor == null){
+            writeExecutor = Threads.executor("Save Writer", 1);
+        }
+
+        writeExecutor.submit(() -> {
+            Throwable error = null;
+            try{
+                task.run();
+            }catch(Throwable e){
+                error = e;
+            }
+
+            if(done != null){
+                Throwable result = error;
+                Core.app.post(() -> done.get(result));
+            }
+        });
+    }
+
+    /**
+     * Writes the current state as uncompressed save data. This is much faster than writing a save file, as nothing is compressed.
+     * Must be called on the main thread; the result is a consistent copy of the state that can be written on any thread with {@link #writeCaptured(Fi, byte[])}.
+     */
+    public static byte[] capture(@Nullable StringMap tags){
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 256);
+        write(out, tags);
+        return out.toByteArray();
+    }
+
+    /**
+     * Compresses save data returned by {@link #capture(StringMap)} and writes it to a file in the regular save format.
+     * A temporary file is written first and then renamed, so the file is never left partially written.
+     */
+    public static void writeCaptured(Fi file, byte[] data) throws IOException{
+        Fi temp = tempFileFor(file);
+        try(OutputStream out = new FastDeflaterOutputStream(temp.write(false, bufferSize))){
+            out.write(data);
+        }
+        replace(temp, file);
+    }
+
+    /**
+     * Compresses save data returned by {@link #capture(StringMap)} in parallel and writes it to a file as a {@link ChunkedSave}.
+     * Chunked saves cannot be read by versions without support for them, so this should only be used for saves that stay on this installation.
+     */
+    public static void writeChunked(Fi file, byte[] data) throws IOException{
+        ChunkedSave.write(file, data);
+    }
+
+    /** @return a temporary file to write a save to before it replaces the target. It does not start with the save's name, so it is never mistaken for a save. */
+    public static Fi tempFileFor(Fi file){
+        return file.sibling("." + file.name() + ".tmp");
+    }
+
+    /** Moves a fully written temporary file over the target file. */
+    public static void replace(Fi temp, Fi file){
+        //rename is atomic on the same file system; fall back to copying if it fails, e.g. because the target exists on Windows
+        if(!temp.file().renameTo(file.file())){
+            temp.moveTo(file);
+        }
+    }
+
+    /** @return a stream of the uncompressed data of a save file, decompressed as it is read. Delta saves are not resolved; use {@link #read(Fi)} for that. */
+    public static InputStream inflate(Fi file){
+        if(ChunkedSave.isChunked(file)){
+            try{
+                return ChunkedSave.stream(file);
+            }catch(IOException e){
+                throw new SaveException(e);
+            }
+        }
+        return new InflaterInputStream(file.read(bufferSize));
+    }
+
+    /** @return a stream of the uncompressed data of a save file. If it is a delta save, it is reconstructed from its base save. */
+    public static InputStream read(Fi file) throws SaveException{
+        BufferedInputStream input;
+        try{
+            //chunked saves are decompressed on multiple threads
+            input = new BufferedInputStream(ChunkedSave.isChunked(file) ? new ByteArrayInputStream(ChunkedSave.read(file)) : inflate(file), bufferSize);
+        }catch(IOException e){
+            throw new SaveException(e);
+        }
+
+        try{
+            if(SaveDelta.isDelta(input)){
+                try(input){
+                    return new ByteArrayInputStream(SaveDelta.read(file, input));
+                }
+            }
+            return input;
+        }catch(IOException e){
+            try{
+                input.close();
+            }catch(IOException ignored){
+            }
+            throw new SaveException(e);
+        }
+    }
+
+    /** @return a stream that starts with the header and metadata of a save file. For chunked saves, only the uncompressed meta block is read. */
+    public static DataInputStream getMetaStream(Fi file){
+        if(ChunkedSave.isChunked(file)){
+            try{
+                return new DataInputStream(new ByteArrayInputStream(ChunkedSave.readBlock(file, "meta")));
+            }catch(IOException e){
+                throw new SaveException(e);
+            }
+        }
+        return getStream(file);
+    }
+
     public static DataInputStream getStream(Fi file){
-        return new DataInputStream(new InflaterInputStream(file.read(bufferSize)));
+        return new DataInputStream(inflate(file));
     }
 
     public static DataInputStream getBackupStream(Fi file){
-        return new DataInputStream(new InflaterInputStream(backupFileFor(file).read(bufferSize)));
+        return new DataInputStream(inflate(backupFileFor(file)));
     }
 
     public static boolean isSaveValid(Fi file){
@@ -60,7 +192,7 @@ public class SaveIO{
     }
 
     private static boolean isSaveFileValid(Fi file){
-        try(DataInputStream stream = new DataInputStream(new InflaterInputStream(file.read(bufferSize)))){
+        try(DataInputStream stream = getMetaStream(file)){
             getMeta(stream);
             return true;
         }catch(Throwable e){
@@ -79,10 +211,10 @@ public class SaveIO{
 
     public static SaveMeta getMeta(Fi file){
         try{
-            return getMeta(getStream(file));
+            return getMeta(getMetaStream(file));
         }catch(Throwable e){
             Log.err(e);
-            return getMeta(getBackupStream(file));
+            return getMeta(getMetaStream(backupFileFor(file)));
         }
     }
 
@@ -147,12 +279,12 @@ public class SaveIO{
     public static void load(Fi file, WorldContext context) throws SaveException{
         try{
             //try and load; if any exception at all occurs
-            load(new InflaterInputStream(file.read(bufferSize)), context);
+            load(read(file), context);
         }catch(SaveException e){
             Log.err(e);
             Fi backup = file.sibling(file.name() + "-backup." + file.extension());
             if(backup.exists()){
-                load(new InflaterInputStream(backup.read(bufferSize)), context);
+                load(read(backup), context);
             }else{
                 throw new SaveException(e.getCause());
             }
@@ -184,6 +316,10 @@ public class SaveIO{
     }
 
     public static void readHeader(DataInput input) throws IOException{
+        readHeader(input, header);
+    }
+
+    public static void readHeader(DataInput input, byte[] header) throws IOException{
         byte[] bytes = new byte[header.length];
         input.readFully(bytes);
         if(!Arrays.equals(bytes, header)){
@@ -191,6 +327,10 @@ public class SaveIO{
         }
     }
 
+    public interface IOTask{
+        void run() throws IOException;
+    }
+
     public static class SaveException extends RuntimeException{
         public SaveException(Throwable throwable){
             super(throwable);
@@ -26,8 +26,10 @@ public class Administration{
     public ObjectMap<String, Long> kickedIPs = new ObjectMap<>();
 
     private boolean modified, loaded;
+    /** Stores player info in a file, only writing players that changed. */
+    public final PlayerStore store = new PlayerStore(Core.settings.getDataDirectory().child("players.dat"));
     /** All player info. Maps UUIDs to info. This persists throughout restarts. Do not modify directly. */
-    public ObjectMap<String, PlayerInfo> playerInfo = new ObjectMap<>();
+    public ObjectMap<String, PlayerInfo> playerInfo = store.players;
 
     public Administration(){
         load();
@@ -107,6 +109,7 @@ public class Administration{
         PlayerInfo info = getInfo(uuid);
         info.timesKicked++;
         info.lastKicked = Math.max(Time.millis() + duration, info.lastKicked);
+        save(info);
     }
 
     public Seq<String> getSubnetBans(){
@@ -115,12 +118,12 @@ public class Administration{
 
     public void removeSubnetBan(String ip){
         subnetBans.remove(ip);
-        save();
+        modified = true;
     }
 
     public void addSubnetBan(String ip){
         subnetBans.add(ip);
-        save();
+        modified = true;
     }
 
     public boolean isSubnetBanned(String ip){
@@ -197,6 +200,7 @@ public class Administration{
         info.timesJoined++;
         if(!info.names.contains(name, false)) info.names.add(name);
         if(!info.ips.contains(ip, false)) info.ips.add(ip);
+        save(info);
     }
 
     public boolean banPlayer(String uuid){
@@ -211,14 +215,13 @@ public class Administration{
         if(bannedIPs.contains(ip, false))
             return false;
 
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.ips.contains(ip, false)){
-                info.banned = true;
-            }
+        for(PlayerInfo info : findByIPs(ip)){
+            info.banned = true;
+            save(info);
         }
 
         bannedIPs.add(ip);
-        save();
+        modified = true;
         Events.fire(new PlayerIpBanEvent(ip));
         return true;
     }
@@ -228,9 +231,10 @@ public class Administration{
         if(playerInfo.containsKey(id) && playerInfo.get(id).banned)
             return false;
 
-        getCreateInfo(id).banned = true;
+        PlayerInfo info = getCreateInfo(id);
+        info.banned = true;
 
-        save();
+        save(info);
         Events.fire(new PlayerBanEvent(Groups.player.find(p -> id.equals(p.uuid())), id));
         return true;
     }
@@ -242,17 +246,16 @@ public class Administration{
     public boolean unbanPlayerIP(String ip){
         boolean found = bannedIPs.contains(ip, false);
 
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.ips.contains(ip, false)){
-                info.banned = false;
-                found = true;
-            }
+        for(PlayerInfo info : findByIPs(ip)){
+            info.banned = false;
+            save(info);
+            found = true;
         }
 
         bannedIPs.remove(ip, false);
 
         if(found){
-            save();
+            modified = true;
             Events.fire(new PlayerIpUnbanEvent(ip));
         }
         return found;
@@ -269,7 +272,7 @@ public class Administration{
 
         info.banned = false;
         bannedIPs.removeAll(info.ips, false);
-        save();
+        save(info);
         Events.fire(new PlayerUnbanEvent(Groups.player.find(p -> id.equals(p.uuid())), id));
         return true;
     }
@@ -318,7 +321,7 @@ public class Administration{
 
         info.adminUsid = usid;
         info.admin = true;
-        save();
+        save(info);
 
         return wasAdmin;
     }
@@ -333,7 +336,7 @@ public class Administration{
         if(!info.admin) return false;
 
         info.admin = false;
-        save();
+        save(info);
 
         return true;
     }
@@ -350,7 +353,7 @@ public class Administration{
         PlayerInfo info = getCreateInfo(id);
         if(whitelist.contains(info.adminUsid + id)) return false;
         whitelist.add(info.adminUsid + id);
-        save();
+        modified = true;
         return true;
     }
 
@@ -358,7 +361,7 @@ public class Administration{
         PlayerInfo info = getCreateInfo(id);
         if(whitelist.contains(info.adminUsid + id)){
             whitelist.remove(info.adminUsid + id);
-            save();
+            modified = true;
             return true;
         }
         return false;
@@ -381,14 +384,19 @@ public class Administration{
     public ObjectSet<PlayerInfo> findByName(String name){
         ObjectSet<PlayerInfo> result = new ObjectSet<>();
 
-        for(PlayerInfo info : playerInfo.values()){
+        //the indexes may contain more candidates than necessary, as they ignore case
+        for(PlayerInfo info : store.findByName(name)){
             if(info.lastName.equalsIgnoreCase(name) || info.names.contains(name, false)
-            || Strings.stripColors(Strings.stripColors(info.lastName)).equals(name)
-            || info.ips.contains(name, false) || info.id.equals(name)){
+            || Strings.stripColors(Strings.stripColors(info.lastName)).equals(name)){
                 result.add(info);
             }
         }
 
+        result.addAll(store.findByIP(name));
+
+        PlayerInfo info = store.get(name);
+        if(info != null) result.add(info);
+
         return result;
     }
 
@@ -396,7 +404,7 @@ public class Administration{
     public ObjectSet<PlayerInfo> searchNames(String name){
         ObjectSet<PlayerInfo> result = new ObjectSet<>();
 
-        for(PlayerInfo info : playerInfo.values()){
+        for(PlayerInfo info : store.searchNames(name)){
             if(info.names.contains(n -> n.toLowerCase().contains(name.toLowerCase()) || Strings.stripColors(n).trim().toLowerCase().contains(name))){
                 result.add(info);
             }
@@ -405,16 +413,13 @@ public class Administration{
         return result;
     }
 
-    public Seq<PlayerInfo> findByIPs(String ip){
-        Seq<PlayerInfo> result = new Seq<>();
-
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.ips.contains(ip, false)){
-                result.add(info);
-            }
-        }
+    /** Finds all players that used a name starting with this prefix, ignoring case and colors. */
+    public ObjectSet<PlayerInfo> findByNamePrefix(String prefix){
+        return store.findByNamePrefix(prefix);
+    }
 
-        return result;
+    public Seq<PlayerInfo> findByIPs(String ip){
+        return store.findByIP(ip);
     }
 
     public PlayerInfo getInfo(String id){
@@ -422,16 +427,12 @@ public class Administration{
     }
 
     public PlayerInfo getInfoOptional(String id){
-        return playerInfo.get(id);
+        return store.get(id);
     }
 
     public PlayerInfo findByIP(String ip){
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.ips.contains(ip, false)){
-                return info;
-            }
-        }
-        return null;
+        Seq<PlayerInfo> infos = store.findByIP(ip);
+        return infos.isEmpty() ? null : infos.first();
     }
 
     public Seq<PlayerInfo> getWhitelisted(){
@@ -439,23 +440,33 @@ public class Administration{
     }
 
     private PlayerInfo getCreateInfo(String id){
-        if(playerInfo.containsKey(id)){
-            return playerInfo.get(id);
-        }else{
-            PlayerInfo info = new PlayerInfo(id);
-            playerInfo.put(id, info);
-            save();
-            return info;
+        PlayerInfo info = store.get(id);
+        if(info == null){
+            info = new PlayerInfo(id);
+            store.add(info);
+            modified = true;
         }
+        return info;
     }
 
+    /**
+     * Saves bans, kicks, whitelists and the info of all players with the next {@link #forceSave()}. Only info that changed is written,
+     * but every player is checked; use {@link #save(PlayerInfo)} when it is known which player changed.
+     */
     public void save(){
         modified = true;
+        store.changedAll();
+    }
+
+    /** Marks the info of a player as changed, so it is saved with the next {@link #forceSave()}. Must be called after modifying player info. */
+    public void save(PlayerInfo info){
+        store.changed(info);
+        modified = true;
     }
 
     public void forceSave(){
         if(modified && loaded){
-            Core.settings.putJson("player-data", playerInfo);
+            store.flush();
             Core.settings.putJson("ip-kicks", kickedIPs);
             Core.settings.putJson("ip-bans", String.class, bannedIPs);
             Core.settings.putJson("whitelist-ids", String.class, whitelist);
@@ -468,11 +479,26 @@ public class Administration{
     private void load(){
         loaded = true;
         //load default data
-        playerInfo = Core.settings.getJson("player-data", ObjectMap.class, ObjectMap::new);
+        store.load();
         kickedIPs = Core.settings.getJson("ip-kicks", ObjectMap.class, ObjectMap::new);
         bannedIPs = Core.settings.getJson("ip-bans", Seq.class, Seq::new);
         whitelist = Core.settings.getJson("whitelist-ids", Seq.class, Seq::new);
         subnetBans = Core.settings.getJson("banned-subnets", Seq.class, Seq::new);
+
+        //player info used to be stored as one JSON object in the settings, which was rewritten on every save
+        if(Core.settings.has("player-data")){
+            ObjectMap<String, PlayerInfo> legacy = Core.settings.getJson("player-data", ObjectMap.class, ObjectMap::new);
+            for(PlayerInfo info : legacy.values()){
+                if(store.get(info.id) == null){
+                    store.add(info);
+                }
+            }
+
+            if(store.flush()){
+                Core.settings.remove("player-data");
+                Log.info("Moved info of @ players to @.", legacy.size, store.file.name());
+            }
+        }
     }
 
     /**
@@ -501,6 +527,11 @@ public class Administration{
         messageSpamKick = new Config("messageSpamKick", "How many times a player must send a message before the cooldown to get kicked. 0 to disable.", 3),
         packetSpamLimit = new Config("packetSpamLimit", "Limit for packet count sent within 3sec that will lead to a blacklist + kick.", 300),
         chatSpamLimit = new Config("chatSpamLimit", "Limit for chat packet count sent within 2sec that will lead to a blacklist + kick. Not the same as a rate limit.", 20),
+        connectBurst = new Config("connectBurst", "How many connections one IP can open at once before further connections are refused. Subnets can open 4 times as many. 0 to disable.", 5),
+        connectRate = new Config("connectRate", "How many connections per minute one IP can open after its burst is used up. Subnets can open 4 times as many.", 10),
+        packetBatching = new Config("packetBatching", "Whether small packets are queued and sent together once per frame, instead of one network write each.", true),
+        worldTransferRate = new Config("worldTransferRate", "Total bandwidth for sending world data to joining players, in KB/s. It is shared fairly between them. 0 for no limit.", 4096),
+        maxWorldTransfers = new Config("maxWorldTransfers", "How many players can download and load the world at the same time. Other joining players wait in a queue. 0 to disable.", 8),
         socketInput = new Config("socketInput", "Allows a local application to control this server through a local TCP socket.", false, "socket", () -> Events.fire(Trigger.socketConfigChanged)),
         socketInputPort = new Config("socketInputPort", "The port for socket input.", 6859, () -> Events.fire(Trigger.socketConfigChanged)),
         socketInputAddress = new Config("socketInputAddress", "The bind address for socket input.", "localhost", () -> Events.fire(Trigger.socketConfigChanged)),
@@ -510,11 +541,21 @@ public class Administration{
         autosave = new Config("autosave", "Whether the periodically save the map when playing.", false),
         autosaveAmount = new Config("autosaveAmount", "The maximum amount of autosaves. Older ones get replaced.", 10),
         autosaveSpacing = new Config("autosaveSpacing", "Spacing between autosaves in seconds.", 60 * 5),
+        autosaveDeltas = new Config("autosaveDeltas", "How many autosaves only store what changed since the last full autosave, before a full one is written again. 0 to always write full autosaves.", 4),
+        autosaveAsync = new Config("autosaveAsync", "Whether autosaves are compressed and written on a background thread, so they do not stall the game.", true),
+        autosaveChunked = new Config("autosaveChunked", "Whether full autosaves are compressed in parallel blocks. Such saves load faster, but cannot be read by older versions.", true),
         debug = new Config("debug", "Enable debug logging.", false, () -> Log.level = debug() ? LogLevel.debug : LogLevel.info),
         snapshotInterval = new Config("snapshotInterval", "Client entity snapshot interval in ms.", 200),
+        distantSyncInterval = new Config("distantSyncInterval", "Entities outside of a player's view are only included in every n-th snapshot. 1 to send everything in every snapshot.", 4),
+        asyncSnapshots = new Config("asyncSnapshots", "Whether entity snapshots are compressed and sent on worker threads instead of the main thread.", false),
+        deltaSnapshots = new Config("deltaSnapshots", "Whether entity snapshots only contain fields that changed since the last snapshot acknowledged by each client.", true),
+        snapshotDictionary = new Config("snapshotDictionary", "Whether snapshots are compressed with a dictionary built from recent snapshots and shared with clients. Uses less bandwidth, but more CPU.", false),
+        worldDataCacheTime = new Config("worldDataCacheTime", "How long compressed map data is reused for joining players if no blocks change, in ms. 0 to disable.", 2000),
         autoPause = new Config("autoPause", "Whether the game should pause when nobody is online.", false),
         roundExtraTime = new Config("roundExtraTime", "Time before loading a new map after the gameover, in seconds.", 12),
         maxLogLength = new Config("maxLogLength", "The Maximum log file size, in bytes.", 1024 * 1024 * 5),
+        logBufferSize = new Config("logBufferSize", "How many log lines can wait to be written to the log file. Further lines are dropped until there is space. Requires a restart.", 8192),
+        logJson = new Config("logJson", "Whether log files contain one JSON object per line instead of plain text.", false),
         logCommands = new Config("logCommands", "Whether player commands should be logged.", true);
 
         public final Object defaultValue;
@@ -602,6 +643,8 @@ public class Administration{
         public transient int messageInfractions;
         public transient Ratekeeper rate = new Ratekeeper();
         public transient Interval messageTimer = new Interval();
+        /** Checksum and size of the last record of this player written by the {@link PlayerStore}. */
+        transient int storedHash, storedSize;
 
         PlayerInfo(String id){
             this.id = id;
@@ -37,7 +37,24 @@ public class ArcNetProvider implements NetProvider{
     private static final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
     private static final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
 
-    private volatile int playerLimitCache, packetSpamLimit;
+    /** Packets that a connection may send before its connect packet; anything more is considered spam. */
+    private static final int preConnectPacketLimit = 10;
+    /** Maximum size of queued packets sent together over TCP/UDP. UDP batches have to fit into a single datagram. */
+    private static final int reliableBatchSize = 8192, unreliableBatchSize = 1000;
+    /** Queued unreliable packets are dropped while this many bytes are waiting to be written over TCP, as the client is not keeping up. */
+    private static final int backpressureSize = 16384;
+
+    private static final ThreadLocal<ByteBuffer> batchBuffers = Threads.local(() -> ByteBuffer.allocate(reliableBatchSize));
+    private static final ThreadLocal<Writes> batchWrites = Threads.local(() -> new Writes(new ByteBufferOutput(batchBuffers.get())));
+
+    final ConnectionThrottle throttle = new ConnectionThrottle();
+    /** Shares bandwidth between world data sent to joining players. */
+    final StreamScheduler streams = new StreamScheduler();
+    /** Filter set by {@link #setConnectFilter(ServerConnectFilter)}, checked after the built-in checks. */
+    private volatile @Nullable ServerConnectFilter connectFilter;
+
+    private volatile int playerLimitCache, packetSpamLimit, connectBurst, connectRate;
+    private volatile boolean batchPackets;
 
     public ArcNetProvider(){
         ArcNet.errorHandler = e -> {
@@ -55,6 +72,10 @@ public class ArcNetProvider implements NetProvider{
         Events.run(Trigger.update, () -> {
             playerLimitCache = netServer.admins.getPlayerLimit();
             packetSpamLimit = Config.packetSpamLimit.num();
+            connectBurst = Config.connectBurst.num();
+            connectRate = Config.connectRate.num();
+            streams.rate = Config.worldTransferRate.num() * 1024;
+            batchPackets = Config.packetBatching.bool();
         });
 
         client = new Client(8192, 16384, new PacketSerializer());
@@ -104,6 +125,10 @@ public class ArcNetProvider implements NetProvider{
             buffer.limit(length);
             handler.respond(buffer);
         });
+        //runs before the connection is set up, so rejecting floods is cheap
+        server.setConnectFilter(address ->
+            !netServer.admins.isDosBlacklisted(address) && throttle.allow(address, connectBurst, connectRate) &&
+            (connectFilter == null || connectFilter.accept(address)));
 
         server.addListener(new NetListener(){
 
@@ -153,6 +178,20 @@ public class ArcNetProvider implements NetProvider{
                     return;
                 }
 
+                //until a client has identified itself, it has no reason to send much
+                if(!k.connectReceived && object instanceof Packet){
+                    if(object instanceof ConnectPacket){
+                        k.connectReceived = true;
+                    }else if(++k.preConnectPackets > preConnectPacketLimit){
+                        Log.debug("Closing connection '@': too many packets before connecting.", k.address);
+                        connection.close(DcReason.closed);
+                        return;
+                    }
+                }
+
+                //the object was deserialized on this thread right before being received
+                k.stats.received(NetMetrics.lastRead());
+
                 if(!(object instanceof Packet pack)) return;
 
                 Core.app.post(() -> {
@@ -168,12 +207,12 @@ public class ArcNetProvider implements NetProvider{
 
     @Override
     public void setConnectFilter(Server.ServerConnectFilter connectFilter){
-        server.setConnectFilter(connectFilter);
+        this.connectFilter = connectFilter;
     }
 
     @Override
     public @Nullable ServerConnectFilter getConnectFilter(){
-        return server.getConnectFilter();
+        return connectFilter;
     }
 
     private static boolean isLocal(InetAddress addr){
@@ -329,6 +368,11 @@ public class ArcNetProvider implements NetProvider{
 
     class ArcConnection extends NetConnection{
         public final Connection connection;
+        /** Only used on the server thread. */
+        int preConnectPackets;
+        boolean connectReceived;
+        /** Small packets waiting to be sent together at the end of the frame. */
+        final Batch reliableBatch = new Batch(reliableBatchSize, true), unreliableBatch = new Batch(unreliableBatchSize, false);
 
         public ArcConnection(String address, Connection connection){
             super(address);
@@ -342,38 +386,100 @@ public class ArcNetProvider implements NetProvider{
 
         @Override
         public void sendStream(Streamable stream){
-            connection.addListener(new InputStreamSender(stream.stream, 1024){
-                int id;
-
-                @Override
-                protected void start(){
-                    //send an object so the receiving side knows how to handle the following chunks
-                    StreamBegin begin = new StreamBegin();
-                    begin.total = stream.stream.available();
-                    begin.type = Net.getPacketId(stream);
-                    connection.sendTCP(begin);
-                    id = begin.id;
+            connection.addListener(new StreamSender(stream, this, streams));
+        }
+
+        @Override
+        public void send(Object object, boolean reliable){
+            //snapshots are large and already combine many updates, so they are not queued
+            if(batchPackets && supportsBatches && object instanceof Packet packet && packet.getPriority() != Packet.priorityHigh && !PacketDictionary.compresses(packet)){
+                if(queue(packet, reliable)) return;
+            }else if(reliable){
+                //packets that are sent immediately must not overtake queued ones
+                flush(reliableBatch);
+            }
+
+            write(object, reliable);
+        }
+
+        @Override
+        public void flush(){
+            flush(reliableBatch);
+            flush(unreliableBatch);
+        }
+
+        /** @return whether the packet was queued or dropped. If it was not, it needs to be sent immediately. */
+        boolean queue(Packet packet, boolean reliable){
+            Batch batch = reliable ? reliableBatch : unreliableBatch;
+
+            if(!reliable && connection.getTcpWriteBufferSize() > backpressureSize){
+                return true;
+            }
+
+            long time = Time.nanos();
+            ByteBuffer buffer = batchBuffers.get();
+            buffer.position(0).limit(buffer.capacity());
+            try{
+                packet.write(batchWrites.get());
+            }catch(BufferOverflowException e){
+                if(reliable) flush(batch);
+                return false;
+            }
+            int size = buffer.position();
+
+            synchronized(batch){
+                if(size + 3 > batch.data.length){
+                    if(reliable) flush(batch);
+                    return false;
                 }
 
-                @Override
-                protected Object next(byte[] bytes){
-                    StreamChunk chunk = new StreamChunk();
-                    chunk.id = id;
-                    chunk.data = bytes;
-                    return chunk; //wrap the byte[] with an object so the receiving side knows how to handle it.
+                if(batch.length + size + 3 > batch.data.length){
+                    flush(batch);
                 }
-            });
+
+                byte id = Net.getPacketId(packet);
+                byte[] data = batch.data;
+                data[batch.length] = id;
+                data[batch.length + 1] = (byte)(size >> 8);
+                data[batch.length + 2] = (byte)size;
+                System.arraycopy(buffer.array(), 0, data, batch.length + 3, size);
+                batch.length += size + 3;
+
+                //the batch is only counted as a whole when it is serialized, so every packet in it is counted here
+                NetMetrics.sent(id, size + 3, size + 3, Time.timeSinceNanos(time));
+            }
+            return true;
         }
 
-        @Override
-        public void send(Object object, boolean reliable){
+        void flush(Batch batch){
+            synchronized(batch){
+                if(batch.length == 0) return;
+
+                //the batch is serialized while sending, so its data can be reused afterwards
+                PacketBatch packet = new PacketBatch();
+                packet.data = batch.data;
+                packet.length = batch.length;
+                write(packet, batch.reliable);
+                batch.length = 0;
+            }
+        }
+
+        void write(Object object, boolean reliable){
             try{
                 if(connection.isConnected()){
-                    if(reliable){
-                        connection.sendTCP(object);
-                    }else{
-                        connection.sendUDP(object);
+                    PacketDictionary dictionary = this.dictionary;
+                    if(dictionary != null) PacketDictionary.sending(dictionary);
+                    try{
+                        if(reliable){
+                            connection.sendTCP(object);
+                        }else{
+                            connection.sendUDP(object);
+                        }
+                    }finally{
+                        if(dictionary != null) PacketDictionary.sending(null);
                     }
+                    //the object is serialized on this thread while sending
+                    stats.sent(NetMetrics.lastWritten());
                 }
             }catch(Exception e){
                 Log.err(e);
@@ -388,7 +494,127 @@ public class ArcNetProvider implements NetProvider{
 
         @Override
         public void close(){
-            if(connection.isConnected()) connection.close(DcReason.closed);
+            if(connection.isConnected()){
+                flush();
+                connection.close(DcReason.closed);
+            }
+        }
+    }
+
+    static class Batch{
+        final byte[] data;
+        final boolean reliable;
+        int length;
+
+        Batch(int capacity, boolean reliable){
+            this.data = new byte[capacity];
+            this.reliable = reliable;
+        }
+    }
+
+    /**
+     * Sends a stream in chunks whenever the TCP write buffer of the connection is mostly empty, and the {@link StreamScheduler} allows it.
+     * The chunk size grows while the client keeps up, and shrinks when the buffer drains slowly.
+     */
+    static class StreamSender implements NetListener{
+        static final int minChunkSize = 1024, maxChunkSize = 8192;
+        /** If the previous chunk was sent faster/slower than this, the chunk size is increased/decreased. */
+        static final long fastDrainTime = 50, slowDrainTime = 400;
+
+        final Streamable stream;
+        final InputStream input;
+        final ArcConnection con;
+        final StreamScheduler scheduler;
+        final StreamScheduler.Transfer transfer;
+        final byte[] buffer = new byte[maxChunkSize];
+
+        int id, chunkSize = minChunkSize;
+        long lastChunk;
+        boolean started, done;
+
+        StreamSender(Streamable stream, ArcConnection con, StreamScheduler scheduler){
+            this.stream = stream;
+            this.input = stream.input();
+            this.con = con;
+            this.scheduler = scheduler;
+            this.transfer = scheduler.add(stream.total());
+            con.transfer = transfer;
+        }
+
+        @Override
+        public void idle(Connection connection){
+            if(done) return;
+
+            if(!started){
+                started = true;
+                //packets queued before the stream was started should arrive before it
+                con.flush();
+                //send an object so the receiving side knows how to handle the following chunks
+                StreamBegin begin = new StreamBegin();
+                begin.total = stream.total();
+                begin.type = Net.getPacketId(stream);
+                connection.sendTCP(begin);
+                id = begin.id;
+            }
+
+            //only the time it took to send the last chunk counts, not time spent waiting for the scheduler
+            if(lastChunk != 0){
+                long elapsed = Time.timeSinceMillis(lastChunk);
+                if(elapsed < fastDrainTime){
+                    chunkSize = Math.min(chunkSize * 2, maxChunkSize);
+                }else if(elapsed > slowDrainTime){
+                    chunkSize = Math.max(chunkSize / 2, minChunkSize);
+                }
+                lastChunk = 0;
+            }
+
+            int allowed = scheduler.request(transfer, chunkSize);
+            if(allowed <= 0) return;
+
+            try{
+                //fill the chunk; parts of a sequence may return less than requested
+                int length = 0;
+                while(length < allowed){
+                    int read = input.read(buffer, length, allowed - length);
+                    if(read <= 0) break;
+                    length += read;
+                }
+
+                if(length < allowed){
+                    scheduler.refund(transfer, allowed - length);
+                }
+
+                if(length == 0){
+                    finish(connection);
+                    return;
+                }
+
+                //wrap the byte[] with an object so the receiving side knows how to handle it.
+                StreamChunk chunk = new StreamChunk();
+                chunk.id = id;
+                chunk.data = new byte[length];
+                System.arraycopy(buffer, 0, chunk.data, 0, length);
+                connection.sendTCP(chunk);
+
+                transfer.sent += length;
+                lastChunk = Time.millis();
+            }catch(IOException e){
+                finish(connection);
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void disconnected(Connection connection, DcReason reason){
+            finish(connection);
+        }
+
+        void finish(Connection connection){
+            if(done) return;
+            done = true;
+            scheduler.remove(transfer);
+            if(con.transfer == transfer) con.transfer = null;
+            connection.removeListener(this);
         }
     }
 
@@ -417,10 +643,14 @@ public class ArcNetProvider implements NetProvider{
                 downloadAccum += byteBuffer.remaining();
             }
 
+            int start = byteBuffer.position();
             byte id = byteBuffer.get();
             if(id == -2){
-                return readFramework(byteBuffer);
+                Object result = readFramework(byteBuffer);
+                NetMetrics.lastRead(byteBuffer.position() - start);
+                return result;
             }else{
+                long time = Time.nanos();
                 //read length int, followed by compressed lz4 data
                 Packet packet = Net.newPacket(id);
                 var buffer = decompressBuffer.get();
@@ -435,6 +665,18 @@ public class ArcNetProvider implements NetProvider{
                     packet.read(reads.get(), length);
                     //move read packets forward
                     byteBuffer.position(byteBuffer.position() + buffer.position());
+                }else if(compression == 2){
+                    //deflate with a dictionary received from the server
+                    int dictionaryId = byteBuffer.get() & 0xff;
+                    int compressed = byteBuffer.getShort() & 0xffff;
+                    PacketDictionary dictionary = PacketDictionary.get(dictionaryId);
+                    if(dictionary == null) throw new ArcRuntimeException("Unknown packet dictionary: " + dictionaryId);
+
+                    dictionary.decompress(byteBuffer.array(), byteBuffer.position(), compressed, buffer.array(), length);
+                    buffer.position(0);
+                    buffer.limit(length);
+                    packet.read(reads.get(), length);
+                    byteBuffer.position(byteBuffer.position() + compressed);
                 }else{
                     //decompress otherwise
                     int read = decompressor.decompress(byteBuffer, byteBuffer.position(), buffer, 0, length);
@@ -446,6 +688,10 @@ public class ArcNetProvider implements NetProvider{
                     byteBuffer.position(byteBuffer.position() + read);
                 }
 
+                int wire = byteBuffer.position() - start;
+                NetMetrics.lastRead(wire);
+                NetMetrics.received(id, length + 4, wire, Time.timeSinceNanos(time));
+
                 return packet;
             }
         }
@@ -456,6 +702,8 @@ public class ArcNetProvider implements NetProvider{
                 lastPos = byteBuffer.position();
             }
 
+            int start = byteBuffer.position();
+
             //write raw buffer
             if(o instanceof ByteBuffer raw){
                 byteBuffer.put(raw);
@@ -464,33 +712,51 @@ public class ArcNetProvider implements NetProvider{
                 writeFramework(byteBuffer, msg);
             }else{
                 if(!(o instanceof Packet pack)) throw new RuntimeException("All sent objects must extend Packet! Class: " + o.getClass());
+                long time = Time.nanos();
                 byte id = Net.getPacketId(pack);
                 byteBuffer.put(id);
-
-                var temp = decompressBuffer.get();
-                temp.position(0);
-                temp.limit(temp.capacity());
-                pack.write(writes.get());
-
-                short length = (short)temp.position();
-
-                //write length, uncompressed
-                byteBuffer.putShort(length);
-
-                //don't bother with small packets
-                if(length < 36 || pack instanceof StreamChunk){
-                    //write direct contents...
-                    byteBuffer.put((byte)0); //0 = no compression
-                    byteBuffer.put(temp.array(), 0, length);
+                int rawLength;
+
+                //stream chunks are never compressed, so they can skip the temporary buffer; this must mirror StreamChunk#write
+                if(pack instanceof StreamChunk chunk){
+                    byteBuffer.putShort((short)(6 + chunk.data.length));
+                    byteBuffer.put((byte)0);
+                    byteBuffer.putInt(chunk.id);
+                    byteBuffer.putShort((short)chunk.data.length);
+                    byteBuffer.put(chunk.data);
+                    rawLength = 10 + chunk.data.length;
                 }else{
-                    byteBuffer.put((byte)1); //1 = compression
-                    //write compressed data; this does not modify position!
-                    int written = compressor.compress(temp, 0, temp.position(), byteBuffer, byteBuffer.position(), byteBuffer.remaining());
-                    //skip to indicate the written, compressed data
-                    byteBuffer.position(byteBuffer.position() + written);
+                    var temp = decompressBuffer.get();
+                    temp.position(0);
+                    temp.limit(temp.capacity());
+                    pack.write(writes.get());
+
+                    short length = (short)temp.position();
+                    rawLength = (length & 0xffff) + 4;
+
+                    //write length, uncompressed
+                    byteBuffer.putShort(length);
+
+                    if(writeDictionary(byteBuffer, pack, temp, length & 0xffff)){
+                        //compressed with the dictionary shared with this connection
+                    }else if(length < 36){ //don't bother with small packets
+                        //write direct contents...
+                        byteBuffer.put((byte)0); //0 = no compression
+                        byteBuffer.put(temp.array(), 0, length);
+                    }else{
+                        byteBuffer.put((byte)1); //1 = compression
+                        //write compressed data; this does not modify position!
+                        int written = compressor.compress(temp, 0, temp.position(), byteBuffer, byteBuffer.position(), byteBuffer.remaining());
+                        //skip to indicate the written, compressed data
+                        byteBuffer.position(byteBuffer.position() + written);
+                    }
                 }
+
+                NetMetrics.sent(id, rawLength, byteBuffer.position() - start, Time.timeSinceNanos(time));
             }
 
+            NetMetrics.lastWritten(byteBuffer.position() - start);
+
             if(debug){
                 if(Time.timeSinceMillis(lastUpload) >= 1000){
                     lastUpload = Time.millis();
@@ -502,6 +768,26 @@ public class ArcNetProvider implements NetProvider{
             }
         }
 
+        /** Compresses a packet with the dictionary of the connection it is sent to, if there is one. */
+        boolean writeDictionary(ByteBuffer byteBuffer, Packet pack, ByteBuffer temp, int length){
+            PacketDictionary dictionary = PacketDictionary.sending();
+            if(dictionary == null || !PacketDictionary.compresses(pack)) return false;
+
+            int start = byteBuffer.position();
+            byteBuffer.put((byte)2); //2 = deflate with dictionary
+            byteBuffer.put((byte)dictionary.id);
+            byteBuffer.putShort((short)0);
+            int written = dictionary.compress(temp.array(), 0, length, byteBuffer);
+            //the dictionary header takes 3 extra bytes
+            if(written == -1 || written + 3 >= length){
+                //not worth it, fall back to regular compression
+                byteBuffer.position(start);
+                return false;
+            }
+            byteBuffer.putShort(start + 2, (short)written);
+            return true;
+        }
+
         public void writeFramework(ByteBuffer buffer, FrameworkMessage message){
             if(message instanceof Ping p){
                 buffer.put((byte)0);
@@ -0,0 +1,98 @@
+package mindustry.net;
+
+import arc.struct.*;
+import arc.util.*;
+import mindustry.net.Administration.*;
+
+/**
+ * Limits how often new connections are accepted from the same IP and subnet, using token buckets.
+ * Each connection takes a token from the bucket of its IP and its subnet; buckets refill over time.
+ * This is checked before a connection is set up, so it is cheap enough to reject connection floods.
+ * Called from network threads.
+ */
+public class ConnectionThrottle{
+    /** How many more connections a subnet can open than a single IP. */
+    public static final int subnetFactor = 4;
+    /** How often buckets that are full again are removed, in milliseconds. */
+    private static final long cleanupInterval = 60 * 1000;
+
+    private final ObjectMap<String, Bucket> ips = new ObjectMap<>(), subnets = new ObjectMap<>();
+    private long lastCleanup = Time.millis();
+
+    /**
+     * @param burst how many connections an IP can open at once; see {@link Config#connectBurst}.
+     * @param rate how many connections an IP can open per minute; see {@link Config#connectRate}.
+     * @return whether a connection from this address is allowed. Takes a token if it is.
+     */
+    public boolean allow(String address, int burst, int rate){
+        return allow(address, burst, rate, Time.millis());
+    }
+
+    /** @param time the current time in milliseconds. @see #allow(String, int, int) */
+    public synchronized boolean allow(String address, int burst, int rate, long time){
+        if(burst <= 0 || rate <= 0) return true;
+
+        if(time - lastCleanup > cleanupInterval){
+            lastCleanup = time;
+            cleanup(ips, time, burst, rate);
+            cleanup(subnets, time, burst * subnetFactor, rate * subnetFactor);
+        }
+
+        Bucket ip = ips.get(address, Bucket::new), subnet = subnets.get(subnet(address), Bucket::new);
+        ip.refill(time, burst, rate);
+        subnet.refill(time, burst * subnetFactor, rate * subnetFactor);
+
+        if(ip.tokens < 1f || subnet.tokens < 1f) return false;
+
+        ip.tokens -= 1f;
+        subnet.tokens -= 1f;
+        return true;
+    }
+
+    /** Forgets all connections. */
+    public synchronized void clear(){
+        ips.clear();
+        subnets.clear();
+    }
+
+    private static void cleanup(ObjectMap<String, Bucket> buckets, long time, int burst, int rate){
+        var values = buckets.values();
+        while(values.hasNext()){
+            Bucket bucket = values.next();
+            bucket.refill(time, burst, rate);
+            if(bucket.tokens >= burst){
+                values.remove();
+            }
+        }
+    }
+
+    /** @return the /24 subnet of an IPv4 address, or the /48 subnet of an IPv6 address. */
+    static String subnet(String address){
+        if(address.indexOf(':') != -1){
+            int end = -1;
+            for(int i = 0; i < 3; i++){
+                end = address.indexOf(':', end + 1);
+                if(end == -1) return address;
+            }
+            return address.substring(0, end);
+        }
+
+        int end = address.lastIndexOf('.');
+        return end == -1 ? address : address.substring(0, end);
+    }
+
+    static class Bucket{
+        /** Starts out full; set when first refilled. */
+        float tokens = -1f;
+        long lastRefill;
+
+        void refill(long time, int burst, int rate){
+            if(tokens < 0f){
+                tokens = burst;
+            }else{
+                tokens = Math.min(burst, tokens + (time - lastRefill) * rate / 60000f);
+            }
+            lastRefill = time;
+        }
+    }
+}
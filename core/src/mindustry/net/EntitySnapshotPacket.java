@@ -0,0 +1,32 @@
+package mindustry.net;
+
+import arc.util.io.*;
+import mindustry.gen.*;
+
+/**
+ * An entity snapshot that writes its data from a slice of a larger buffer, so that no exactly-sized copy has to be made.
+ * It is sent as, and received as, a regular {@link EntitySnapshotCallPacket}; {@link #data} is not used.
+ */
+public class EntitySnapshotPacket extends EntitySnapshotCallPacket{
+    public byte[] buffer;
+    public int length;
+    /** Whether the buffer was obtained from a pool and must be returned after sending. */
+    public boolean pooled;
+
+    @Override
+    public void write(Writes write){
+        //must mirror the generated code for NetClient#entitySnapshot, including TypeIO.writeBytes
+        write.i(snapshotID);
+        write.i(time);
+        write.s(chunk);
+        write.bool(last);
+        write.s(amount);
+        write.s((short)length);
+        write.b(buffer, 0, length);
+    }
+
+    @Override
+    public Class<? extends Packet> packetType(){
+        return EntitySnapshotCallPacket.class;
+    }
+}
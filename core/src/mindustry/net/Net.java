@@ -47,6 +47,7 @@ public class Net{
         registerPacket(StreamChunk::new);
         registerPacket(WorldStream::new);
         registerPacket(ConnectPacket::new);
+        registerPacket(PacketBatch::new);
 
         //register generated packet classes
         Call.registerPackets();
@@ -61,11 +62,16 @@ public class Net{
     }
 
     public static byte getPacketId(Packet packet){
-        int id = packetToId.get(packet.getClass(), -1);
-        if(id == -1) throw new ArcRuntimeException("Unknown packet type: " + packet.getClass());
+        int id = packetToId.get(packet.packetType(), -1);
+        if(id == -1) throw new ArcRuntimeException("Unknown packet type: " + packet.packetType());
         return (byte)id;
     }
 
+    /** @return the packet class registered with this ID, or null if there is none. */
+    public static @Nullable Class<? extends Packet> getPacketType(int id){
+        return id >= 0 && id < packetClasses.size ? packetClasses.get(id) : null;
+    }
+
     public static <T extends Packet> T newPacket(byte id){
         return ((Prov<T>)packetProvs.get(id & 0xff)).get();
     }
@@ -266,6 +272,13 @@ public class Net{
      * Call to handle a packet being received for the client.
      */
     public void handleClientReceived(Packet object){
+        if(object instanceof PacketBatch batch){
+            for(Packet packet : batch.packets){
+                handleClientReceived(packet);
+            }
+            return;
+        }
+
         object.handled();
 
         if(object instanceof StreamBegin b){
@@ -7,6 +7,7 @@ import mindustry.gen.*;
 import mindustry.net.Packets.*;
 
 import java.io.*;
+import java.util.*;
 
 import static mindustry.Vars.*;
 
@@ -24,6 +25,8 @@ public abstract class NetConnection{
     public int lastReceivedClientSnapshot = -1;
     /** Count of snapshots sent from server. */
     public int snapshotsSent;
+    /** Entity states this client has acknowledged, used for delta snapshots. */
+    public SnapshotBaselines baselines = new SnapshotBaselines();
     /** Timestamp of last received snapshot. */
     public long lastReceivedClientTime;
     /** Build requests that have been recently rejected. This is cleared every snapshot. */
@@ -32,6 +35,18 @@ public abstract class NetConnection{
     public Ratekeeper chatRate = new Ratekeeper();
     /** Handles packet spam rate limits. */
     public Ratekeeper packetRate = new Ratekeeper();
+    /** Whether the client can decompress snapshots with a packet dictionary. */
+    public boolean supportsDictionary;
+    /** Whether the client can read packet batches, so small packets can be queued and sent together. */
+    public volatile boolean supportsBatches;
+    /** ID of the last packet dictionary sent to this client, or -1. */
+    public int dictionarySent = -1;
+    /** Dictionary that the client has acknowledged; snapshots sent to this connection are compressed with it. */
+    public volatile @Nullable PacketDictionary dictionary;
+    /** Bytes and packets sent and received over this connection. */
+    public final NetMetrics.ConnectionStats stats = new NetMetrics.ConnectionStats();
+    /** Progress of the stream that is currently being sent to this connection, if the provider schedules streams. */
+    public volatile @Nullable StreamScheduler.Transfer transfer;
 
     public boolean hasConnected, hasBegunConnecting, hasDisconnected;
     public float viewWidth, viewHeight, viewX, viewY;
@@ -98,19 +113,19 @@ public abstract class NetConnection{
     public void sendStream(Streamable stream){
         try{
             int cid;
+            InputStream input = stream.input();
             StreamBegin begin = new StreamBegin();
-            begin.total = stream.stream.available();
+            begin.total = stream.total();
             begin.type = Net.getPacketId(stream);
             send(begin, true);
             cid = begin.id;
 
-            while(stream.stream.available() > 0){
-                byte[] bytes = new byte[Math.min(maxTcpSize, stream.stream.available())];
-                stream.stream.read(bytes);
-
+            byte[] buffer = new byte[maxTcpSize];
+            int read;
+            while((read = input.read(buffer)) > 0){
                 StreamChunk chunk = new StreamChunk();
                 chunk.id = cid;
-                chunk.data = bytes;
+                chunk.data = Arrays.copyOf(buffer, read);
                 send(chunk, true);
             }
         }catch(IOException e){
@@ -120,5 +135,9 @@ public abstract class NetConnection{
 
     public abstract void send(Object object, boolean reliable);
 
+    /** Sends packets that were queued to be sent together, if the provider queues them. Called by the server at the end of every frame. */
+    public void flush(){
+    }
+
     public abstract void close();
 }
@@ -0,0 +1,189 @@
+package mindustry.net;
+
+import arc.struct.*;
+import arc.util.*;
+import arc.util.serialization.*;
+
+import java.io.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Tracks network traffic per packet type and per connection.
+ * Packet types are counted by the serializer, which may run on any thread; all counters are atomic.
+ * Packets sent in a {@link Packets.PacketBatch} are counted on their own with their size in the batch, before it is compressed.
+ * Batches are counted separately as their own type, with the size of all packets in them on the wire.
+ */
+public class NetMetrics{
+    private static final int maxTypes = 256;
+
+    private static final Traffic sent = new Traffic(), received = new Traffic();
+    /** Wire size of the last object written or read by the serializer on the current thread. */
+    private static final ThreadLocal<int[]> lastSizes = Threads.local(() -> new int[2]);
+
+    private static volatile long since = Time.millis();
+
+    /** Records a packet that was serialized. Sizes are in bytes, including the packet header. */
+    public static void sent(byte id, int raw, int wire, long nanos){
+        sent.add(id & 0xff, raw, wire, nanos);
+    }
+
+    /** Records a packet that was deserialized. Sizes are in bytes, including the packet header. */
+    public static void received(byte id, int raw, int wire, long nanos){
+        received.add(id & 0xff, raw, wire, nanos);
+    }
+
+    static void lastWritten(int size){
+        lastSizes.get()[0] = size;
+    }
+
+    static void lastRead(int size){
+        lastSizes.get()[1] = size;
+    }
+
+    /** @return the wire size of the last object serialized on this thread. */
+    public static int lastWritten(){
+        return lastSizes.get()[0];
+    }
+
+    /** @return the wire size of the last object deserialized on this thread. */
+    public static int lastRead(){
+        return lastSizes.get()[1];
+    }
+
+    /** Clears all packet type counters. Connection counters are not affected. */
+    public static void reset(){
+        sent.reset();
+        received.reset();
+        since = Time.millis();
+    }
+
+    /** @return when the counters were last reset. */
+    public static long since(){
+        return since;
+    }
+
+    /** @return traffic per packet type, sorted by bytes sent and received. */
+    public static Seq<PacketStats> packets(){
+        Seq<PacketStats> out = new Seq<>();
+        for(int i = 0; i < maxTypes; i++){
+            if(sent.packets.get(i) == 0 && received.packets.get(i) == 0) continue;
+
+            Class<?> type = Net.getPacketType(i);
+            PacketStats stats = new PacketStats();
+            stats.name = type == null ? "unknown-" + i : type.getSimpleName();
+            stats.sentPackets = sent.packets.get(i);
+            stats.sentBytes = sent.bytes.get(i);
+            stats.sentRawBytes = sent.rawBytes.get(i);
+            stats.sentNanos = sent.nanos.get(i);
+            stats.receivedPackets = received.packets.get(i);
+            stats.receivedBytes = received.bytes.get(i);
+            stats.receivedRawBytes = received.rawBytes.get(i);
+            stats.receivedNanos = received.nanos.get(i);
+            out.add(stats);
+        }
+        out.sort(s -> -(s.sentBytes + s.receivedBytes));
+        return out;
+    }
+
+    /** @return all metrics as a JSON object. */
+    public static String toJson(Iterable<? extends NetConnection> connections){
+        StringWriter buffer = new StringWriter();
+        JsonWriter writer = new JsonWriter(buffer);
+
+        try{
+            writer.object();
+            writer.set("seconds", Math.max(Time.timeSinceMillis(since) / 1000, 1));
+
+            writer.array("packets");
+            for(PacketStats s : packets()){
+                writer.object()
+                .set("type", s.name)
+                .set("sentPackets", s.sentPackets)
+                .set("sentBytes", s.sentBytes)
+                .set("sentRawBytes", s.sentRawBytes)
+                .set("sentNanos", s.sentNanos)
+                .set("receivedPackets", s.receivedPackets)
+                .set("receivedBytes", s.receivedBytes)
+                .set("receivedRawBytes", s.receivedRawBytes)
+                .set("receivedNanos", s.receivedNanos)
+                .pop();
+            }
+            writer.pop();
+
+            writer.array("connections");
+            for(NetConnection con : connections){
+                ConnectionStats s = con.stats;
+                writer.object()
+                .set("address", con.address)
+                .set("player", con.player == null ? null : con.player.plainName())
+                .set("seconds", Math.max(Time.timeSinceMillis(con.connectTime) / 1000, 1))
+                .set("sentPackets", s.sentPackets.get())
+                .set("sentBytes", s.sentBytes.get())
+                .set("receivedPackets", s.receivedPackets.get())
+                .set("receivedBytes", s.receivedBytes.get())
+                .pop();
+            }
+            writer.pop();
+
+            writer.pop();
+            writer.close();
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+        return buffer.toString();
+    }
+
+    static class Traffic{
+        final AtomicLongArray packets = new AtomicLongArray(maxTypes), bytes = new AtomicLongArray(maxTypes),
+            rawBytes = new AtomicLongArray(maxTypes), nanos = new AtomicLongArray(maxTypes);
+
+        void add(int id, int raw, int wire, long time){
+            packets.incrementAndGet(id);
+            bytes.addAndGet(id, wire);
+            rawBytes.addAndGet(id, raw);
+            nanos.addAndGet(id, time);
+        }
+
+        void reset(){
+            for(int i = 0; i < maxTypes; i++){
+                packets.set(i, 0);
+                bytes.set(i, 0);
+                rawBytes.set(i, 0);
+                nanos.set(i, 0);
+            }
+        }
+    }
+
+    /** Traffic of a single packet type. Raw sizes are before compression; time is spent in serialization and compression. */
+    public static class PacketStats{
+        public String name;
+        public long sentPackets, sentBytes, sentRawBytes, sentNanos;
+        public long receivedPackets, receivedBytes, receivedRawBytes, receivedNanos;
+
+        /** @return compressed size divided by raw size of sent packets. */
+        public float sentRatio(){
+            return sentRawBytes == 0 ? 1f : (float)sentBytes / sentRawBytes;
+        }
+
+        /** @return the fraction of the raw size of sent packets that was saved by compression. Negative if they got larger. */
+        public float sentSaving(){
+            return 1f - sentRatio();
+        }
+    }
+
+    /** Traffic of a single connection, as seen on the wire. */
+    public static class ConnectionStats{
+        public final AtomicLong sentPackets = new AtomicLong(), sentBytes = new AtomicLong(),
+            receivedPackets = new AtomicLong(), receivedBytes = new AtomicLong();
+
+        public void sent(int bytes){
+            sentPackets.incrementAndGet();
+            sentBytes.addAndGet(bytes);
+        }
+
+        public void received(int bytes){
+            receivedPackets.incrementAndGet();
+            receivedBytes.addAndGet(bytes);
+        }
+    }
+}
@@ -17,39 +17,78 @@ import mindustry.type.*;
 import java.io.*;
 import java.nio.*;
 import java.util.*;
+import java.util.zip.*;
 
 import static mindustry.Vars.*;
 
 public class NetworkIO{
 
-    public static void writeWorld(Player player, OutputStream os){
+    /**
+     * Writes world data for a player. The player-specific state is compressed separately from the map,
+     * so that the compressed map data from {@link #writeWorldMap()} can be shared between joining players.
+     */
+    public static void writeWorld(Player player, OutputStream os, byte[] compressedMap){
+        try{
+            os.write(writeWorldHeader(player));
+            os.write(compressedMap);
+            os.flush();
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+    }
 
-        try(DataOutputStream stream = new DataOutputStream(os)){
-            //write all researched content to rules if hosting
-            if(state.isCampaign()){
-                state.rules.researched.clear();
-                for(ContentType type : ContentType.all){
-                    for(Content c : content.getBy(type)){
-                        if(c instanceof UnlockableContent u && u.unlocked() && u.techNode != null){
-                            state.rules.researched.add(u);
+    /** @return the player-specific start of the world data, prefixed with its length. Should be followed by the data from {@link #writeWorldMap()}. */
+    public static byte[] writeWorldHeader(Player player){
+        try{
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+
+            try(DataOutputStream stream = new DataOutputStream(new FastDeflaterOutputStream(header))){
+                //write all researched content to rules if hosting
+                if(state.isCampaign()){
+                    state.rules.researched.clear();
+                    for(ContentType type : ContentType.all){
+                        for(Content c : content.getBy(type)){
+                            if(c instanceof UnlockableContent u && u.unlocked() && u.techNode != null){
+                                state.rules.researched.add(u);
+                            }
                         }
                     }
                 }
+
+                stream.writeUTF(JsonIO.write(state.rules));
+                stream.writeUTF(JsonIO.write(state.mapLocales));
+                SaveIO.getSaveWriter().writeStringMap(stream, state.map.tags);
+
+                stream.writeInt(state.wave);
+                stream.writeFloat(state.wavetime);
+                stream.writeDouble(state.tick);
+                stream.writeLong(GlobalVars.rand.seed0);
+                stream.writeLong(GlobalVars.rand.seed1);
+
+                stream.writeInt(player.id);
+                player.write(new Writes(stream));
             }
 
-            stream.writeUTF(JsonIO.write(state.rules));
-            stream.writeUTF(JsonIO.write(state.mapLocales));
-            SaveIO.getSaveWriter().writeStringMap(stream, state.map.tags);
+            ByteArrayOutputStream result = new ByteArrayOutputStream(header.size() + 4);
+            DataOutputStream out = new DataOutputStream(result);
+            out.writeInt(header.size());
+            header.writeTo(out);
+            return result.toByteArray();
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+    }
 
-            stream.writeInt(state.wave);
-            stream.writeFloat(state.wavetime);
-            stream.writeDouble(state.tick);
-            stream.writeLong(GlobalVars.rand.seed0);
-            stream.writeLong(GlobalVars.rand.seed1);
+    /** Writes world data for a player, compressing the map specifically for them. */
+    public static void writeWorld(Player player, OutputStream os){
+        writeWorld(player, os, writeWorldMap());
+    }
 
-            stream.writeInt(player.id);
-            player.write(new Writes(stream));
+    /** @return the compressed part of the world data that is the same for every player: content header, map, team blocks, markers and custom chunks. */
+    public static byte[] writeWorldMap(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
 
+        try(DataOutputStream stream = new DataOutputStream(new FastDeflaterOutputStream(bytes))){
             SaveIO.getSaveWriter().writeContentHeader(stream);
             SaveIO.getSaveWriter().writeMap(stream);
             SaveIO.getSaveWriter().writeTeamBlocks(stream);
@@ -58,36 +97,47 @@ public class NetworkIO{
         }catch(IOException e){
             throw new RuntimeException(e);
         }
+
+        return bytes.toByteArray();
     }
 
+    /** Loads world data written by {@link #writeWorld(Player, OutputStream, byte[])}. The input is not compressed as a whole. */
     public static void loadWorld(InputStream is){
 
-        try(DataInputStream stream = new DataInputStream(is)){
-            Time.clear();
-            state.rules = JsonIO.read(Rules.class, stream.readUTF());
-            state.mapLocales = JsonIO.read(MapLocales.class, stream.readUTF());
-            state.map = new Map(SaveIO.getSaveWriter().readStringMap(stream));
-
-            state.wave = stream.readInt();
-            state.wavetime = stream.readFloat();
-            state.tick = stream.readDouble();
-            GlobalVars.rand.seed0 = stream.readLong();
-            GlobalVars.rand.seed1 = stream.readLong();
-
-            Reads read = new Reads(stream);
-
-            Groups.clear();
-            int id = stream.readInt();
-            player.reset();
-            player.read(read);
-            player.id = id;
-            player.add();
-
-            SaveIO.getSaveWriter().readContentHeader(stream);
-            SaveIO.getSaveWriter().readMap(stream, world.context);
-            SaveIO.getSaveWriter().readTeamBlocks(stream);
-            SaveIO.getSaveWriter().readMarkers(stream);
-            SaveIO.getSaveWriter().readCustomChunks(stream);
+        try{
+            DataInputStream input = new DataInputStream(is);
+            byte[] header = new byte[input.readInt()];
+            input.readFully(header);
+
+            try(DataInputStream stream = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(header)))){
+                Time.clear();
+                state.rules = JsonIO.read(Rules.class, stream.readUTF());
+                state.mapLocales = JsonIO.read(MapLocales.class, stream.readUTF());
+                state.map = new Map(SaveIO.getSaveWriter().readStringMap(stream));
+
+                state.wave = stream.readInt();
+                state.wavetime = stream.readFloat();
+                state.tick = stream.readDouble();
+                GlobalVars.rand.seed0 = stream.readLong();
+                GlobalVars.rand.seed1 = stream.readLong();
+
+                Reads read = new Reads(stream);
+
+                Groups.clear();
+                int id = stream.readInt();
+                player.reset();
+                player.read(read);
+                player.id = id;
+                player.add();
+            }
+
+            try(DataInputStream stream = new DataInputStream(new InflaterInputStream(input))){
+                SaveIO.getSaveWriter().readContentHeader(stream);
+                SaveIO.getSaveWriter().readMap(stream, world.context);
+                SaveIO.getSaveWriter().readTeamBlocks(stream);
+                SaveIO.getSaveWriter().readMarkers(stream);
+                SaveIO.getSaveWriter().readCustomChunks(stream);
+            }
         }catch(IOException e){
             throw new RuntimeException(e);
         }finally{
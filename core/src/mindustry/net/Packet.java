@@ -32,6 +32,11 @@ public abstract class Packet{
         return priorityNormal;
     }
 
+    /** @return the registered packet type this is sent as. Subclasses that only change how a registered packet is written should return the parent class. */
+    public Class<? extends Packet> packetType(){
+        return getClass();
+    }
+
     public void handleClient(){}
     public void handleServer(NetConnection con){}
 }
@@ -0,0 +1,100 @@
+package mindustry.net;
+
+import arc.struct.*;
+import arc.util.*;
+import mindustry.gen.*;
+
+import java.nio.*;
+import java.util.zip.*;
+
+/**
+ * A preset dictionary for compressing snapshot packets, built by the server from snapshot data of the current session.
+ * Small snapshots share most of their structure (entity type IDs, field layouts, team data), which independent LZ4 blocks cannot exploit.
+ * The server sends the dictionary to clients that support it, and only compresses with it after the client has acknowledged it.
+ */
+public class PacketDictionary{
+    /** Maximum size of a dictionary. Deflate only looks back 32KB, and more data is rarely useful for small packets. */
+    public static final int maxSize = 8192;
+
+    private static final IntMap<PacketDictionary> known = new IntMap<>();
+    private static final ThreadLocal<Deflater> deflaters = Threads.local(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> inflaters = Threads.local(() -> new Inflater(true));
+    private static final ThreadLocal<byte[]> compressBuffers = Threads.local(() -> new byte[32768]);
+    private static final ThreadLocal<PacketDictionary> sending = new ThreadLocal<>();
+
+    public final int id;
+    public final byte[] data;
+
+    public PacketDictionary(int id, byte[] data){
+        this.id = id;
+        this.data = data;
+    }
+
+    /** @return whether this packet type is compressed with the dictionary, if one is available. */
+    public static boolean compresses(Packet packet){
+        return packet instanceof EntitySnapshotCallPacket || packet instanceof BlockSnapshotCallPacket || packet instanceof StateSnapshotCallPacket;
+    }
+
+    /** Sets the dictionary used by the packet serializer on this thread, or null to stop using one. Set while sending to a connection that acknowledged it. */
+    public static void sending(@Nullable PacketDictionary dictionary){
+        sending.set(dictionary);
+    }
+
+    /** @return the dictionary used by the packet serializer on this thread. */
+    public static @Nullable PacketDictionary sending(){
+        return sending.get();
+    }
+
+    /** Makes a dictionary received from the server available for decompression. */
+    public static void register(PacketDictionary dictionary){
+        synchronized(known){
+            known.put(dictionary.id, dictionary);
+        }
+    }
+
+    public static @Nullable PacketDictionary get(int id){
+        synchronized(known){
+            return known.get(id);
+        }
+    }
+
+    /** Forgets all received dictionaries. */
+    public static void clear(){
+        synchronized(known){
+            known.clear();
+        }
+    }
+
+    /**
+     * Compresses data with this dictionary and writes it to the output buffer.
+     * @return the amount of bytes written, or -1 if nothing was written because compressing the data did not make it any smaller.
+     */
+    public int compress(byte[] input, int offset, int length, ByteBuffer output){
+        Deflater deflater = deflaters.get();
+        byte[] buffer = compressBuffers.get();
+        deflater.reset();
+        deflater.setDictionary(data);
+        deflater.setInput(input, offset, length);
+        deflater.finish();
+        int written = deflater.deflate(buffer, 0, Math.min(length, buffer.length));
+        if(!deflater.finished() || written >= length || written > output.remaining()) return -1;
+
+        output.put(buffer, 0, written);
+        return written;
+    }
+
+    /** Decompresses data that was compressed with this dictionary. */
+    public void decompress(byte[] input, int offset, int length, byte[] output, int outputLength){
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(input, offset, length);
+        try{
+            inflater.setDictionary(data);
+            if(inflater.inflate(output, 0, outputLength) != outputLength){
+                throw new ArcRuntimeException("Invalid dictionary-compressed packet.");
+            }
+        }catch(DataFormatException e){
+            throw new ArcRuntimeException(e);
+        }
+    }
+}
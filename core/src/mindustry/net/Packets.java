@@ -2,11 +2,13 @@ package mindustry.net;
 
 import arc.*;
 import arc.struct.*;
+import arc.util.*;
 import arc.util.io.*;
 import arc.util.serialization.*;
 import mindustry.core.*;
 import mindustry.io.*;
 
+import java.io.*;
 import java.util.zip.*;
 
 /** Class for storing all packets. */
@@ -110,12 +112,52 @@ public class Packets{
         }
     }
 
+    /**
+     * Several small packets that are sent together, so they share one network write and are compressed together.
+     * Each packet is written as its ID, its length as a short, and its data.
+     */
+    public static class PacketBatch extends Packet{
+        /** Data of the packets when writing. Only needs to be valid until the batch is sent, as it is serialized while sending. */
+        public byte[] data;
+        public int length;
+        /** Packets that were read. */
+        public Seq<Packet> packets = new Seq<>();
+
+        @Override
+        public void write(Writes buffer){
+            buffer.b(data, 0, length);
+        }
+
+        @Override
+        public void read(Reads buffer, int length){
+            ReusableByteInStream input = new ReusableByteInStream();
+            Reads reads = new Reads(new DataInputStream(input));
+
+            int read = 0;
+            while(read < length){
+                long time = Time.nanos();
+                byte id = buffer.b();
+                int size = buffer.s() & 0xffff;
+                Packet packet = Net.newPacket(id);
+                input.setBytes(buffer.b(size));
+                packet.read(reads, size);
+                packets.add(packet);
+                read += 3 + size;
+                NetMetrics.received(id, 3 + size, 3 + size, Time.timeSinceNanos(time));
+            }
+        }
+    }
+
     public static class ConnectPacket extends Packet{
         public int version;
         public String versionType;
         public Seq<String> mods;
         public String name, locale, uuid, usid;
         public boolean mobile;
+        /** Whether this client can decompress snapshots with a packet dictionary. */
+        public boolean dictionary;
+        /** Whether this client can read {@link PacketBatch}es. */
+        public boolean batches;
         public int color;
 
         @Override
@@ -132,7 +174,8 @@ public class Packets{
             crc.update(Base64Coder.decode(uuid), 0, b.length);
             buffer.l(crc.getValue());
 
-            buffer.b(mobile ? (byte)1 : 0);
+            //flags: 1 = mobile, 2 = supports packet dictionaries, 4 = supports packet batches
+            buffer.b((mobile ? 1 : 0) | (dictionary ? 2 : 0) | (batches ? 4 : 0));
             buffer.i(color);
             buffer.b((byte)mods.size);
             for(int i = 0; i < mods.size; i++){
@@ -149,7 +192,10 @@ public class Packets{
             usid = TypeIO.readString(buffer);
             byte[] idbytes =  buffer.b(16);
             uuid = new String(Base64Coder.encode(idbytes));
-            mobile = buffer.b() == 1;
+            byte flags = buffer.b();
+            mobile = (flags & 1) != 0;
+            dictionary = (flags & 2) != 0;
+            batches = (flags & 4) != 0;
             color = buffer.i();
             int totalMods = buffer.b();
             mods = new Seq<>(totalMods);
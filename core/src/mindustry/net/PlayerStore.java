@@ -0,0 +1,329 @@
+package mindustry.net;
+
+import arc.files.*;
+import arc.struct.*;
+import arc.util.*;
+import mindustry.io.*;
+import mindustry.net.Administration.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static mindustry.Vars.*;
+
+/**
+ * Persistent storage of player info, as an append-only file of records.
+ * When saving, only records of players that changed are appended; on load, newer records of a player replace older ones.
+ * Once most of the file consists of outdated records, it is rewritten with only the latest ones.
+ * <p>
+ * All info is kept in memory, indexed by UUID, IP and name.
+ * Methods are synchronized, as info is saved on a timer thread.
+ */
+public class PlayerStore{
+    private static final byte[] header = {'M', 'P', 'L', 'R'};
+    private static final int version = 1;
+    /** Size of the header and version at the start of the file. */
+    private static final int headerSize = header.length + 4;
+    /** Size of the length and checksum before each record. */
+    private static final int recordHeaderSize = 8;
+    private static final int maxRecordSize = 1024 * 1024;
+    /** Outdated records are only removed once the file is at least this large. */
+    private static final long minCompactSize = 1024 * 1024;
+
+    public final Fi file;
+    /** All player info by UUID. */
+    public final ObjectMap<String, PlayerInfo> players = new ObjectMap<>();
+
+    private final ObjectMap<String, Seq<PlayerInfo>> byIP = new ObjectMap<>();
+    /** Player info by lowercase name, with and without colors. Sorted, for prefix searches. */
+    private final TreeMap<String, Seq<PlayerInfo>> byName = new TreeMap<>();
+    private final ObjectSet<PlayerInfo> changed = new ObjectSet<>();
+    /** Whether every player is checked for changes on the next flush, as info may have been modified without being marked. */
+    private boolean checkAll;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream record = new DataOutputStream(bytes);
+    private final CRC32 crc = new CRC32();
+    /** Size of the file and of all up-to-date records in it. */
+    private long fileSize, liveSize;
+
+    public PlayerStore(Fi file){
+        this.file = file;
+    }
+
+    /** Reads all records from the file. Anything after the last valid record is discarded, as it was not fully written. */
+    public synchronized void load(){
+        players.clear();
+        fileSize = liveSize = 0;
+
+        if(file.exists()){
+            long valid = 0;
+            try(DataInputStream in = new DataInputStream(file.read(bufferSize))){
+                SaveIO.readHeader(in, header);
+                int fileVersion = in.readInt();
+                if(fileVersion != version) throw new IOException("Unknown player data version: " + fileVersion);
+                valid = headerSize;
+
+                while(true){
+                    int length;
+                    try{
+                        length = in.readInt();
+                    }catch(EOFException e){
+                        break;
+                    }
+                    int checksum = in.readInt();
+                    if(length <= 0 || length > maxRecordSize) break;
+
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    crc.reset();
+                    crc.update(data);
+                    if((int)crc.getValue() != checksum) break;
+
+                    PlayerInfo info = read(new DataInputStream(new ByteArrayInputStream(data)));
+                    info.storedHash = checksum;
+                    info.storedSize = recordHeaderSize + length;
+
+                    PlayerInfo last = players.put(info.id, info);
+                    if(last != null) liveSize -= last.storedSize;
+                    liveSize += info.storedSize;
+                    valid += info.storedSize;
+                }
+            }catch(EOFException e){
+                //the last record was cut off
+            }catch(IOException e){
+                Log.err("Failed to read player data", e);
+            }
+
+            fileSize = valid;
+            if(valid < file.length()){
+                Fi backup = file.sibling(file.name() + ".bak");
+                Log.warn("Player data file has @ invalid bytes at the end, which are discarded. A copy of it was saved to @.", file.length() - valid, backup.name());
+                file.copyTo(backup);
+                compact();
+            }
+        }
+
+        byIP.clear();
+        byName.clear();
+        for(PlayerInfo info : players.values()){
+            index(info, true);
+        }
+    }
+
+    /** Adds info of a new player. */
+    public synchronized void add(PlayerInfo info){
+        players.put(info.id, info);
+        index(info, false);
+        changed.add(info);
+    }
+
+    /** Marks info as changed, so it is written on the next flush. Its names and IPs are indexed immediately. */
+    public synchronized void changed(PlayerInfo info){
+        if(changed.add(info)){
+            index(info, false);
+        }
+    }
+
+    /** Checks the info of every player for changes on the next flush. Only records that differ from the stored ones are written. */
+    public synchronized void changedAll(){
+        checkAll = true;
+    }
+
+    /** Appends records of all changed players to the file. @return whether writing succeeded. */
+    public synchronized boolean flush(){
+        if(changed.isEmpty() && !checkAll) return true;
+
+        boolean create = fileSize == 0 || !file.exists();
+        try(DataOutputStream out = new DataOutputStream(file.write(!create, bufferSize))){
+            if(create){
+                writeHeader(out);
+            }
+
+            for(PlayerInfo info : checkAll ? players.values() : changed){
+                index(info, false);
+                int lastSize = info.storedSize;
+                //records that are the same as the stored ones are skipped
+                if(writeRecord(out, info, false)){
+                    liveSize += info.storedSize - lastSize;
+                }
+            }
+        }catch(IOException e){
+            Log.err("Failed to save player data", e);
+            return false;
+        }
+
+        changed.clear();
+        checkAll = false;
+
+        if(fileSize > minCompactSize && fileSize > liveSize * 2){
+            compact();
+        }
+        return true;
+    }
+
+    /** Rewrites the file with only the latest record of each player. */
+    public synchronized void compact(){
+        Fi temp = SaveIO.tempFileFor(file);
+        try(DataOutputStream out = new DataOutputStream(temp.write(false, bufferSize))){
+            fileSize = liveSize = 0;
+            writeHeader(out);
+            for(PlayerInfo info : players.values()){
+                writeRecord(out, info, true);
+                liveSize += info.storedSize;
+            }
+        }catch(IOException e){
+            Log.err("Failed to compact player data", e);
+            temp.delete();
+            return;
+        }
+        changed.clear();
+        checkAll = false;
+        SaveIO.replace(temp, file);
+    }
+
+    public synchronized @Nullable PlayerInfo get(String id){
+        return players.get(id);
+    }
+
+    /** @return the info of all players that used this IP. */
+    public synchronized Seq<PlayerInfo> findByIP(String ip){
+        Seq<PlayerInfo> result = byIP.get(ip);
+        return result == null ? new Seq<>() : new Seq<>(result);
+    }
+
+    /** @return the info of all players that used a name which is equal to this one, ignoring case, with or without colors. */
+    public synchronized Seq<PlayerInfo> findByName(String name){
+        Seq<PlayerInfo> result = byName.get(name.toLowerCase());
+        return result == null ? new Seq<>() : new Seq<>(result);
+    }
+
+    /** @return the info of all players that used a name which starts with this prefix, ignoring case, with or without colors. */
+    public synchronized ObjectSet<PlayerInfo> findByNamePrefix(String prefix){
+        ObjectSet<PlayerInfo> result = new ObjectSet<>();
+        String key = prefix.toLowerCase();
+        for(Seq<PlayerInfo> infos : byName.subMap(key, key + Character.MAX_VALUE).values()){
+            result.addAll(infos);
+        }
+        return result;
+    }
+
+    /** @return the info of all players that used a name which contains this text, ignoring case, with or without colors. Only distinct names are searched. */
+    public synchronized ObjectSet<PlayerInfo> searchNames(String text){
+        ObjectSet<PlayerInfo> result = new ObjectSet<>();
+        String key = text.toLowerCase();
+        for(var entry : byName.entrySet()){
+            if(entry.getKey().contains(key)){
+                result.addAll(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /** Adds the names and IPs of a player to the indexes. When building the indexes, every player is only added once, so duplicates are cheap to detect. */
+    private void index(PlayerInfo info, boolean building){
+        for(String ip : info.ips){
+            Seq<PlayerInfo> infos = byIP.get(ip);
+            if(infos == null) byIP.put(ip, infos = new Seq<>(1));
+            add(infos, info, building);
+        }
+        for(String name : info.names){
+            indexName(info, name, building);
+        }
+        indexName(info, info.lastName, building);
+    }
+
+    private void indexName(PlayerInfo info, @Nullable String name, boolean building){
+        if(name == null) return;
+        String lower = name.toLowerCase();
+        add(byName.computeIfAbsent(lower, k -> new Seq<>(1)), info, building);
+        add(byName.computeIfAbsent(Strings.stripColors(name).toLowerCase(), k -> new Seq<>(1)), info, building);
+    }
+
+    private static void add(Seq<PlayerInfo> infos, PlayerInfo info, boolean building){
+        if(building ? infos.isEmpty() || infos.peek() != info : !infos.contains(info, true)){
+            infos.add(info);
+        }
+    }
+
+    private void writeHeader(DataOutputStream out) throws IOException{
+        out.write(header);
+        out.writeInt(version);
+        fileSize = headerSize;
+    }
+
+    /** @return whether the record was written. Unless forced, it is only written if it differs from the stored one. */
+    private boolean writeRecord(DataOutputStream out, PlayerInfo info, boolean force) throws IOException{
+        bytes.reset();
+        write(record, info);
+        byte[] data = bytes.toByteArray();
+
+        crc.reset();
+        crc.update(data);
+        int checksum = (int)crc.getValue();
+        int size = recordHeaderSize + data.length;
+        if(!force && checksum == info.storedHash && size == info.storedSize) return false;
+
+        out.writeInt(data.length);
+        out.writeInt(checksum);
+        out.write(data);
+
+        info.storedHash = checksum;
+        info.storedSize = size;
+        fileSize += size;
+        return true;
+    }
+
+    private static void write(DataOutputStream out, PlayerInfo info) throws IOException{
+        out.writeUTF(info.id);
+        writeString(out, info.lastName);
+        writeString(out, info.lastIP);
+        writeString(out, info.adminUsid);
+        out.writeInt(info.ips.size);
+        for(String ip : info.ips){
+            out.writeUTF(ip);
+        }
+        out.writeInt(info.names.size);
+        for(String name : info.names){
+            out.writeUTF(name);
+        }
+        out.writeInt(info.timesKicked);
+        out.writeInt(info.timesJoined);
+        out.writeBoolean(info.banned);
+        out.writeBoolean(info.admin);
+        out.writeLong(info.lastKicked);
+    }
+
+    private static PlayerInfo read(DataInputStream in) throws IOException{
+        PlayerInfo info = new PlayerInfo(in.readUTF());
+        info.lastName = readString(in);
+        info.lastIP = readString(in);
+        info.adminUsid = readString(in);
+        int ips = in.readInt();
+        info.ips.ensureCapacity(ips);
+        for(int i = 0; i < ips; i++){
+            info.ips.add(in.readUTF());
+        }
+        int names = in.readInt();
+        info.names.ensureCapacity(names);
+        for(int i = 0; i < names; i++){
+            info.names.add(in.readUTF());
+        }
+        info.timesKicked = in.readInt();
+        info.timesJoined = in.readInt();
+        info.banned = in.readBoolean();
+        info.admin = in.readBoolean();
+        info.lastKicked = in.readLong();
+        return info;
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String value) throws IOException{
+        out.writeBoolean(value != null);
+        if(value != null) out.writeUTF(value);
+    }
+
+    private static @Nullable String readString(DataInputStream in) throws IOException{
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
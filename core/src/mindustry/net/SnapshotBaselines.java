@@ -0,0 +1,104 @@
+package mindustry.net;
+
+import arc.struct.*;
+import mindustry.gen.*;
+
+/**
+ * Keeps track of which entity states a client is known to have, based on the entity snapshots it has acknowledged.
+ * Used by the server to only send fields that changed since a client's last known state.
+ */
+public class SnapshotBaselines{
+    /** How many unacknowledged snapshots are remembered. Acknowledgements for older snapshots are ignored. */
+    private static final int window = 32;
+
+    private final int[] ids = new int[window], frames = new int[window];
+    private final IntSeq[] entities = new IntSeq[window];
+    /** Entity ID -> sync frame of the newest state this client has acknowledged. */
+    private final IntIntMap ackedFrames = new IntIntMap();
+    /** Entity ID -> snapshot ID at which this entity was removed from the client's view. */
+    private final IntIntMap forgotten = new IntIntMap();
+    private int current = -1, lastAcked = -1;
+
+    public SnapshotBaselines(){
+        for(int i = 0; i < window; i++){
+            entities[i] = new IntSeq();
+        }
+        reset();
+    }
+
+    /** Starts recording the entities that are sent in a new snapshot. */
+    public void begin(int snapshotID, int frame){
+        current = snapshotID;
+        int slot = slot(snapshotID);
+        ids[slot] = snapshotID;
+        frames[slot] = frame;
+        entities[slot].clear();
+    }
+
+    /** Records an entity as being sent in the current snapshot. */
+    public void sent(int entityID){
+        entities[slot(current)].add(entityID);
+    }
+
+    /** Called when the client has received every part of a snapshot. A negative ID means that the client has lost its baseline. */
+    public void acknowledge(int snapshotID){
+        if(snapshotID < 0){
+            if(lastAcked >= 0) reset();
+            return;
+        }
+
+        int slot = slot(snapshotID);
+        if(snapshotID <= lastAcked || ids[slot] != snapshotID) return;
+
+        lastAcked = snapshotID;
+        int frame = frames[slot];
+        IntSeq sent = entities[slot];
+        for(int i = 0; i < sent.size; i++){
+            int id = sent.items[i];
+            if(forgotten.get(id, -1) > snapshotID) continue;
+
+            ackedFrames.put(id, Math.max(ackedFrames.get(id, -1), frame));
+        }
+    }
+
+    /** @return the sync frame of the newest state the client has of this entity, or -1 if it has none. */
+    public int baseFrame(int entityID){
+        return ackedFrames.get(entityID, -1);
+    }
+
+    /** Marks an entity as no longer present on the client, e.g. because it was hidden. */
+    public void forget(int entityID){
+        ackedFrames.remove(entityID, -1);
+        forgotten.put(entityID, current);
+    }
+
+    /** Forgets all client state; everything will be sent in full again. */
+    public void reset(){
+        ackedFrames.clear();
+        forgotten.clear();
+        lastAcked = -1;
+        for(int i = 0; i < window; i++){
+            ids[i] = -1;
+            entities[i].clear();
+        }
+    }
+
+    /** Removes data of entities that no longer exist. */
+    public void prune(){
+        prune(ackedFrames);
+        prune(forgotten);
+    }
+
+    private void prune(IntIntMap map){
+        var keys = map.keys();
+        while(keys.hasNext){
+            if(Groups.sync.getByID(keys.next()) == null){
+                keys.remove();
+            }
+        }
+    }
+
+    private static int slot(int snapshotID){
+        return snapshotID % window;
+    }
+}
@@ -0,0 +1,128 @@
+package mindustry.net;
+
+import arc.math.*;
+import arc.struct.*;
+import arc.util.*;
+
+/**
+ * Holds entity snapshots on the client until they are due, so that they are applied at the same pace as the server sent them.
+ * Entities are interpolated based on the time between snapshots; snapshots that arrive late, early or in bursts would make them jump.
+ * <p>
+ * A snapshot is due a short delay after it would have arrived with the lowest network delay that was measured recently.
+ * The delay follows how much arrival times vary, so that most snapshots are already there when they are due.
+ * Snapshots that arrive after they are due are applied right away; lost ones are covered by extrapolation.
+ */
+public class SnapshotBuffer{
+    /** How long the lowest clock offset is remembered, in milliseconds. Allows the offset to follow clock drift. */
+    private static final long offsetWindow = 10 * 1000;
+    /** How quickly the delay shrinks once arrival times vary less, per chunk. */
+    private static final float jitterDecay = 0.02f;
+
+    /** The highest delay in milliseconds. 0 to apply snapshots as soon as they arrive. */
+    public static int maxDelay = 200;
+
+    /** Chunks that are not due yet, sorted by snapshot ID and chunk. */
+    private final Seq<Chunk> chunks = new Seq<>(Chunk.class);
+
+    private boolean timed;
+    /** Server time of the last chunk, unwrapped from the int that is sent. */
+    private long serverTime;
+    private int lastTime;
+    /** Lowest difference between local and server time of the current and previous window. Includes the network delay. */
+    private long offset, lastOffset;
+    private long windowStart;
+    private float jitter;
+
+    /** Adds a received chunk of a snapshot. @param time the server time at which it was sent, truncated to an int. */
+    public void add(int id, int time, short chunk, boolean last, short amount, byte[] data){
+        add(id, time, chunk, last, amount, data, now());
+    }
+
+    /** @param now the local time in milliseconds, from a monotonic clock. @see #add(int, int, short, boolean, short, byte[]) */
+    public void add(int id, int time, short chunk, boolean last, short amount, byte[] data, long now){
+        //the difference is taken as an int, so that the time may wrap around
+        serverTime = timed ? serverTime + (time - lastTime) : time;
+        lastTime = time;
+
+        long sampleOffset = now - serverTime;
+        if(!timed || now - windowStart > offsetWindow){
+            lastOffset = timed ? offset : sampleOffset;
+            offset = sampleOffset;
+            windowStart = now;
+            timed = true;
+        }else{
+            offset = Math.min(offset, sampleOffset);
+        }
+
+        //rises right away when chunks are late, and falls slowly when they are on time again
+        float deviation = sampleOffset - baseOffset();
+        jitter = deviation > jitter ? deviation : Mathf.lerp(jitter, deviation, jitterDecay);
+
+        Chunk next = new Chunk(id, serverTime, chunk, last, amount, data);
+        int index = chunks.size;
+        while(index > 0 && next.before(chunks.get(index - 1))){
+            index--;
+        }
+        chunks.insert(index, next);
+    }
+
+    /** @return the next chunk that is due, or null if there is none. */
+    public @Nullable Chunk poll(){
+        return poll(now());
+    }
+
+    /** @param now the local time in milliseconds, from a monotonic clock. @see #poll() */
+    public @Nullable Chunk poll(long now){
+        if(chunks.isEmpty()) return null;
+        if(maxDelay > 0 && now < chunks.first().sent + baseOffset() + delay()) return null;
+        return chunks.remove(0);
+    }
+
+    /** @return the current delay in milliseconds. */
+    public int delay(){
+        return Math.min((int)jitter, maxDelay);
+    }
+
+    /** @return the amount of chunks that are not due yet. */
+    public int size(){
+        return chunks.size;
+    }
+
+    /** Discards all chunks and measurements. */
+    public void clear(){
+        chunks.clear();
+        timed = false;
+        jitter = 0f;
+    }
+
+    /** @return local time in milliseconds. Monotonic, so that changes to the system clock do not hold back chunks. */
+    private static long now(){
+        return Time.nanos() / 1000000L;
+    }
+
+    private long baseOffset(){
+        return Math.min(offset, lastOffset);
+    }
+
+    public static class Chunk{
+        public final int id;
+        public final short chunk, amount;
+        public final boolean last;
+        public final byte[] data;
+        /** Server time at which the snapshot was sent. */
+        final long sent;
+
+        Chunk(int id, long sent, short chunk, boolean last, short amount, byte[] data){
+            this.id = id;
+            this.sent = sent;
+            this.chunk = chunk;
+            this.last = last;
+            this.amount = amount;
+            this.data = data;
+        }
+
+        boolean before(Chunk other){
+            return id < other.id || (id == other.id && chunk < other.chunk);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package mindustry.net;
+
+import arc.struct.*;
+import arc.util.*;
+
+/**
+ * Shares a global bandwidth budget between streams that are sent at the same time, such as world data for joining players.
+ * The budget is a token bucket of bytes. Streams that are ready to send are served fairly: a stream that has been given
+ * more bytes than another ready stream has to wait until that one catches up. Streams of slow clients are not ready,
+ * as their send buffer is full, so they do not hold back others.
+ * <p>
+ * Requests are made from the network thread; progress can be read from any thread.
+ */
+public class StreamScheduler{
+    /** Streams that requested bytes within this time in ms are considered ready to send. */
+    private static final long readyTime = 100;
+    /** How far ahead of the least served ready stream a stream may get, in bytes. */
+    private static final int fairnessSlack = 16 * 1024;
+    /** Minimum amount of bytes that can be saved up while no stream is sending. */
+    private static final int minBurst = 16 * 1024;
+
+    /** Bytes per second shared by all streams. 0 or less for no limit. */
+    public volatile int rate;
+
+    private final Seq<Transfer> transfers = new Seq<>(false, 16, Transfer.class);
+    private float tokens;
+    private long lastRefill = Time.millis();
+
+    /** Registers a stream that is about to be sent. */
+    public synchronized Transfer add(int total){
+        Transfer transfer = new Transfer(total);
+        //new streams start at the same share as the least served one, so they do not take over everything until they catch up
+        long served = Long.MAX_VALUE;
+        for(Transfer other : transfers){
+            served = Math.min(served, other.served);
+        }
+        transfer.served = transfers.isEmpty() ? 0 : served;
+        transfers.add(transfer);
+        return transfer;
+    }
+
+    /** Removes a stream that is done or was cancelled. */
+    public synchronized void remove(Transfer transfer){
+        transfers.remove(transfer, true);
+    }
+
+    /** @return how many bytes a stream may send now, up to the amount it wants. 0 if it has to wait. */
+    public synchronized int request(Transfer transfer, int wanted){
+        long time = Time.millis();
+        transfer.lastRequest = time;
+
+        for(Transfer other : transfers){
+            if(other != transfer && time - other.lastRequest < readyTime && transfer.served - other.served > fairnessSlack){
+                return 0;
+            }
+        }
+
+        int limit = rate;
+        if(limit > 0){
+            tokens = Math.min(tokens + (time - lastRefill) * limit / 1000f, Math.max(limit / 10f, minBurst));
+            lastRefill = time;
+
+            //do not send tiny chunks just because a few bytes are available
+            if(tokens < Math.min(wanted, 1024)) return 0;
+            wanted = Math.min(wanted, (int)tokens);
+            tokens -= wanted;
+        }
+
+        transfer.served += wanted;
+        return wanted;
+    }
+
+    /** Returns bytes that were granted to a stream, but not sent. */
+    public synchronized void refund(Transfer transfer, int amount){
+        transfer.served -= amount;
+        if(rate > 0) tokens += amount;
+    }
+
+    /** @return the amount of streams that are being sent. */
+    public synchronized int size(){
+        return transfers.size;
+    }
+
+    /** Progress of a single stream. */
+    public static class Transfer{
+        public final int total;
+        public final long startTime = Time.millis();
+        /** Bytes that have been sent so far. */
+        public volatile int sent;
+
+        /** Bytes granted so far, offset by the share of other streams when this one started. */
+        long served;
+        long lastRequest;
+
+        Transfer(int total){
+            this.total = total;
+        }
+
+        /** @return progress from 0 to 1. */
+        public float progress(){
+            return total <= 0 ? 1f : (float)sent / total;
+        }
+
+        /** @return average bytes per second since the stream started. */
+        public float speed(){
+            return sent / Math.max(Time.timeSinceMillis(startTime) / 1000f, 0.001f);
+        }
+    }
+}
@@ -1,11 +1,44 @@
 package mindustry.net;
 
+import arc.math.*;
+import arc.util.*;
 import mindustry.net.Packets.*;
 
 import java.io.*;
+import java.util.*;
 
 public class Streamable extends Packet{
+    /** Pre-sizing of received streams is capped at this, as the total is sent by the other side. */
+    private static final int maxPresize = 1024 * 1024 * 32;
+
     public transient ByteArrayInputStream stream;
+    /**
+     * If set, this data is sent instead of {@link #stream}, in order. This allows sending shared data without copying it into a single buffer.
+     * The arrays must not be modified until the stream has been sent.
+     */
+    public transient @Nullable byte[][] parts;
+
+    /** @return the data to send. */
+    public InputStream input(){
+        if(parts == null) return stream;
+
+        ArrayList<InputStream> streams = new ArrayList<>(parts.length);
+        for(byte[] part : parts){
+            streams.add(new ByteArrayInputStream(part));
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    /** @return the total amount of bytes to send. */
+    public int total(){
+        if(parts == null) return stream.available();
+
+        int total = 0;
+        for(byte[] part : parts){
+            total += part.length;
+        }
+        return total;
+    }
 
     @Override
     public int getPriority(){
@@ -16,12 +49,13 @@ public class Streamable extends Packet{
         public final int id;
         public final byte type;
         public final int total;
-        public final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        public final ByteArrayOutputStream stream;
 
         public StreamBuilder(StreamBegin begin){
             id = begin.id;
             type = begin.type;
             total = begin.total;
+            stream = new ByteArrayOutputStream(Mathf.clamp(total, 32, maxPresize));
         }
 
         public float progress(){
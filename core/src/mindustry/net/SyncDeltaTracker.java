@@ -0,0 +1,155 @@
+package mindustry.net;
+
+import arc.struct.*;
+import arc.util.io.*;
+import mindustry.gen.*;
+
+import java.io.*;
+
+/**
+ * Tracks the sync frame at which each field of each synced entity last changed.
+ * Entities are serialized field-by-field at most once per frame, and the bytes of every field are compared with the previous frame's.
+ * The serialized bytes are kept, so that snapshots for every player can be assembled from them without serializing the entity again.
+ */
+public class SyncDeltaTracker{
+    private final IntMap<EntityState> states = new IntMap<>();
+    private final ReusableByteOutStream buffer = new ReusableByteOutStream();
+    private final Writes writes = new Writes(new DataOutputStream(buffer));
+    private int[] offsets = new int[33];
+    private int frame;
+
+    /** Begins a new sync frame. Any changes detected after this call are attributed to it. */
+    public void nextFrame(){
+        frame++;
+    }
+
+    public int frame(){
+        return frame;
+    }
+
+    /** Serializes the entity and records which fields changed, if that has not been done this frame yet. Calls beforeWrite(). */
+    public void update(Syncc entity){
+        EntityState state = states.get(entity.id());
+        if(state == null){
+            states.put(entity.id(), state = new EntityState());
+        }else if(state.frame == frame){
+            return;
+        }
+
+        int fields = entity.syncFields();
+        if(offsets.length < fields + 1) offsets = new int[fields + 1];
+
+        entity.beforeWrite();
+        buffer.reset();
+        for(int i = 0; i < fields; i++){
+            offsets[i] = buffer.size();
+            entity.writeSyncDelta(writes, 1 << i);
+        }
+        offsets[fields] = buffer.size();
+
+        byte[] bytes = buffer.getBytes();
+
+        if(state.changed == null || state.changed.length != fields){
+            //first time this entity is seen, everything is new
+            state.changed = new int[fields];
+            state.offsets = new int[fields + 1];
+            state.data = new byte[0];
+            for(int i = 0; i < fields; i++){
+                state.changed[i] = frame;
+            }
+        }else{
+            for(int i = 0; i < fields; i++){
+                if(!spanEquals(bytes, offsets[i], offsets[i + 1], state.data, state.offsets[i], state.offsets[i + 1])){
+                    state.changed[i] = frame;
+                }
+            }
+        }
+
+        if(state.data.length < buffer.size()){
+            state.data = new byte[buffer.size()];
+        }
+        System.arraycopy(bytes, 0, state.data, 0, buffer.size());
+        System.arraycopy(offsets, 0, state.offsets, 0, fields + 1);
+        state.frame = frame;
+    }
+
+    /**
+     * @param baseFrame the frame of the last state that the receiver is known to have, or -1 if it has none.
+     * @return a mask of all fields that changed after the base frame, or -1 if the entity needs to be sent in full.
+     * */
+    public int changedSince(Syncc entity, int baseFrame){
+        EntityState state = states.get(entity.id());
+        if(baseFrame < 0 || state == null || state.changed == null) return -1;
+
+        int mask = 0;
+        for(int i = 0; i < state.changed.length; i++){
+            if(state.changed[i] > baseFrame){
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Writes the fields in the mask, exactly as writeSyncDelta would. Copies the data serialized in {@link #update(Syncc)},
+     * which must have been called for this entity in the current frame.
+     * */
+    public void write(Syncc entity, int mask, DataOutput output) throws IOException{
+        EntityState state = states.get(entity.id());
+        if(state == null || state.frame != frame){
+            throw new IllegalStateException("Entity " + entity + " has not been serialized this frame.");
+        }
+
+        int fields = state.changed.length;
+        if(mask == -1){
+            output.write(state.data, 0, state.offsets[fields]);
+            return;
+        }
+
+        //copy consecutive runs of fields at once
+        int i = 0;
+        while(i < fields){
+            if((mask & (1 << i)) == 0){
+                i++;
+                continue;
+            }
+
+            int start = i;
+            while(i < fields && (mask & (1 << i)) != 0) i++;
+            output.write(state.data, state.offsets[start], state.offsets[i] - state.offsets[start]);
+        }
+    }
+
+    /** Removes the state of entities that are no longer synced. */
+    public void prune(){
+        var entries = states.entries();
+        while(entries.hasNext){
+            if(Groups.sync.getByID(entries.next().key) == null){
+                entries.remove();
+            }
+        }
+    }
+
+    public void clear(){
+        states.clear();
+    }
+
+    private static boolean spanEquals(byte[] a, int aFrom, int aTo, byte[] b, int bFrom, int bTo){
+        if(aTo - aFrom != bTo - bFrom) return false;
+        for(int i = 0; i < aTo - aFrom; i++){
+            if(a[aFrom + i] != b[bFrom + i]) return false;
+        }
+        return true;
+    }
+
+    static class EntityState{
+        /** Last frame this entity was serialized in. */
+        int frame = -1;
+        /** Serialized fields from the last frame. Reused between frames. */
+        byte[] data;
+        /** Start offset of each field in data; the last element is the end. */
+        int[] offsets;
+        /** Frame at which each field last changed. */
+        int[] changed;
+    }
+}
@@ -83,6 +83,7 @@ public class SNet implements SteamNetworkingCallback, SteamMatchmakingCallback,
                                     net.handleServerReceived(con, c);
                                 }
 
+                                con.stats.received(len);
                                 net.handleServerReceived(con, pack);
                             }catch(Throwable e){
                                 Log.err(e);
@@ -430,10 +431,18 @@ public class SNet implements SteamNetworkingCallback, SteamMatchmakingCallback,
             try{
                 writeBuffer.limit(writeBuffer.capacity());
                 writeBuffer.position(0);
-                serializer.write(writeBuffer, object);
+                PacketDictionary dictionary = this.dictionary;
+                if(dictionary != null) PacketDictionary.sending(dictionary);
+                try{
+                    serializer.write(writeBuffer, object);
+                }finally{
+                    if(dictionary != null) PacketDictionary.sending(null);
+                }
                 int length = writeBuffer.position();
                 writeBuffer.flip();
 
+                stats.sent(length);
+
                 snet.sendP2PPacket(sid, writeBuffer, reliable || length >= 1000 ? object instanceof StreamChunk ? P2PSend.ReliableWithBuffering : P2PSend.Reliable : P2PSend.UnreliableNoDelay, 0);
             }catch(Exception e){
                 Log.err(e);
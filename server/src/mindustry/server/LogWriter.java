@@ -0,0 +1,204 @@
+package mindustry.server;
+
+import arc.files.*;
+import arc.util.*;
+import arc.util.Log.*;
+import arc.util.serialization.*;
+import mindustry.net.Administration.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static arc.util.ColorCodes.*;
+import static arc.util.Log.*;
+import static mindustry.server.ServerControl.*;
+
+/**
+ * Writes log files on a background thread, so logging never waits for disk I/O.
+ * Lines are kept in a bounded queue and written in batches. Once a file reaches {@link Config#maxLogLength}, a new one is started.
+ * <p>
+ * When lines are logged faster than they can be written and the queue is full, they are dropped.
+ * Errors wait a short while for space in the queue first. The amount of dropped lines is written to the log once there is space again.
+ */
+public class LogWriter{
+    private static final int maxBatch = 512;
+    /** How long errors wait for space in a full queue, in milliseconds. */
+    private static final long errorWait = 200;
+
+    public final Fi folder;
+
+    /** The file that is currently being written to. */
+    public volatile @Nullable Fi currentFile;
+
+    private final ArrayBlockingQueue<Line> queue;
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final Thread thread;
+
+    private @Nullable OutputStream out;
+    private long size;
+    private boolean json;
+
+    public LogWriter(Fi folder, int capacity){
+        this.folder = folder;
+        this.queue = new ArrayBlockingQueue<>(Math.max(capacity, 16));
+        this.thread = Threads.daemon("Log Writer", this::run);
+
+        //write everything that is still queued when the server exits
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "Log Writer Shutdown"));
+    }
+
+    /** Queues a line to be written. @param level the level of the line, or null if the text is already formatted. */
+    public void log(@Nullable LogLevel level, String text){
+        Line line = new Line(Time.millis(), level, text);
+        if(queue.offer(line)) return;
+
+        if(level == LogLevel.err){
+            try{
+                if(queue.offer(line, errorWait, TimeUnit.MILLISECONDS)) return;
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        dropped.incrementAndGet();
+    }
+
+    /** Stops the writer thread after all queued lines are written. */
+    public void close(){
+        thread.interrupt();
+        try{
+            thread.join(2000);
+        }catch(InterruptedException ignored){
+        }
+    }
+
+    private void run(){
+        ArrayList<Line> batch = new ArrayList<>(maxBatch);
+
+        while(true){
+            try{
+                batch.add(queue.take());
+            }catch(InterruptedException e){
+                break;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+            write(batch);
+            batch.clear();
+        }
+
+        queue.drainTo(batch);
+        write(batch);
+        closeFile();
+    }
+
+    private void write(ArrayList<Line> batch){
+        try{
+            //switching formats starts a new file
+            boolean useJson = Config.logJson.bool();
+            if(out != null && useJson != json){
+                closeFile();
+            }
+            json = useJson;
+
+            int lost = dropped.getAndSet(0);
+            if(lost > 0){
+                writeLine(new Line(Time.millis(), LogLevel.warn, lost + " log lines were dropped, as they were logged faster than they could be written."));
+            }
+
+            for(Line line : batch){
+                writeLine(line);
+            }
+
+            if(out != null) out.flush();
+        }catch(IOException e){
+            //logging this would write to the log file again
+            System.err.println("Failed to write log file: " + e);
+            closeFile();
+        }
+    }
+
+    private void writeLine(Line line) throws IOException{
+        byte[] bytes = ((json ? formatJson(line) : format(line)) + "\n").getBytes(StandardCharsets.UTF_8);
+        int maxLength = Config.maxLogLength.num();
+
+        if(out != null && size + bytes.length > maxLength){
+            if(!json){
+                out.write(("[End of log file. Date: " + dateTime.format(LocalDateTime.now()) + "]\n").getBytes(StandardCharsets.UTF_8));
+            }
+            closeFile();
+        }
+
+        if(out == null){
+            int i = 0;
+            while(folder.child(fileName(i)).length() >= maxLength){
+                i++;
+            }
+
+            Fi file = folder.child(fileName(i));
+            folder.mkdirs();
+            size = file.length();
+            out = file.write(true, 8192);
+            currentFile = file;
+        }
+
+        out.write(bytes);
+        size += bytes.length;
+    }
+
+    private void closeFile(){
+        if(out != null){
+            try{
+                out.close();
+            }catch(IOException ignored){
+            }
+            out = null;
+            currentFile = null;
+        }
+    }
+
+    private String fileName(int index){
+        return "log-" + index + (json ? ".jsonl" : ".txt");
+    }
+
+    private static String format(Line line){
+        String text = line.level == null ? line.text : "[" + dateTime.format(toDateTime(line.time)) + "] " + formatColors(tags[line.level.ordinal()] + " " + line.text + "&fr", false);
+        return removeCodes(text);
+    }
+
+    private static String formatJson(Line line) throws IOException{
+        StringWriter buffer = new StringWriter();
+        new JsonWriter(buffer).object()
+        .set("time", Instant.ofEpochMilli(line.time).toString())
+        .set("level", line.level == null ? "none" : line.level.name())
+        .set("message", removeCodes(formatColors(line.text + "&fr", false)))
+        .pop();
+        return buffer.toString();
+    }
+
+    private static String removeCodes(String text){
+        for(String value : values){
+            text = text.replace(value, "");
+        }
+        return text;
+    }
+
+    private static LocalDateTime toDateTime(long millis){
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    static class Line{
+        final long time;
+        final @Nullable LogLevel level;
+        final String text;
+
+        Line(long time, @Nullable LogLevel level, String text){
+            this.time = time;
+            this.level = level;
+            this.text = text;
+        }
+    }
+}
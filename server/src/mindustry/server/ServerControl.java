@@ -46,6 +46,11 @@ public class ServerControl implements ApplicationListener{
 
     public final CommandHandler handler = new CommandHandler("");
     public final Fi logFolder = Core.settings.getDataDirectory().child("logs/");
+    /** Writes log files on a background thread. */
+    public final LogWriter logWriter = new LogWriter(logFolder, Config.logBufferSize.num());
+    /** @deprecated the file the log writer was writing to when the last line was logged. Use {@link LogWriter#currentFile} instead. */
+    @Deprecated
+    public @Nullable Fi currentLogFile;
 
     private final Interval autosaveCount = new Interval();
 
@@ -57,15 +62,16 @@ public class ServerControl implements ApplicationListener{
         }
     };
 
-    /** The file to which the logs are currently being written. */
-    public Fi currentLogFile;
-
     /** Whether the server is currently waiting for the next map to be loaded. */
     public boolean inGameOverWait;
 
     /** The last gamemode loaded on this server. */
     public Gamemode lastMode;
 
+    /** The last full autosave that differential autosaves are written against, and how many have been written since. */
+    private @Nullable SaveDelta.Base autosaveBase;
+    private int autosaveDeltas;
+
     private Task lastTask;
     private Thread socketThread;
     private ServerSocket serverSocket;
@@ -132,7 +138,8 @@ public class ServerControl implements ApplicationListener{
             System.out.println(result);
 
             if(Config.logging.bool()){
-                logToFile("[" + dateTime.format(LocalDateTime.now()) + "] " + formatColors(tags[level1.ordinal()] + " " + text + "&fr", false));
+                logWriter.log(level1, text);
+                currentLogFile = logWriter.currentFile;
             }
 
             if(socketOutput != null){
@@ -214,38 +221,15 @@ public class ServerControl implements ApplicationListener{
         //reset autosave on world load
         Events.on(WorldLoadEvent.class, e -> {
             autosaveCount.reset(0, Config.autosaveSpacing.num() * 60);
+            //deltas of the new map would not share anything with the old one
+            autosaveBase = null;
         });
 
         //autosave periodically
         Events.run(Trigger.update, () -> {
             if(state.isPlaying() && Config.autosave.bool()){
                 if(autosaveCount.get(Config.autosaveSpacing.num() * 60)){
-                    int max = Config.autosaveAmount.num();
-
-                    //use map file name to make sure it can be saved
-                    String mapName = (state.map.file == null ? "unknown" : state.map.file.nameWithoutExtension()).replace(" ", "_");
-                    String date = autosaveDate.format(LocalDateTime.now());
-
-                    Seq<Fi> autosaves = saveDirectory.findAll(f -> f.name().startsWith("auto_"));
-                    autosaves.sort(f -> -f.lastModified());
-
-                    //delete older saves
-                    if(autosaves.size >= max){
-                        for(int i = max - 1; i < autosaves.size; i++){
-                            autosaves.get(i).delete();
-                        }
-                    }
-
-                    String fileName = "auto_" + mapName + "_" + date + "." + saveExtension;
-                    Fi file = saveDirectory.child(fileName);
-                    info("Autosaving...");
-
-                    try{
-                        SaveIO.save(file);
-                        info("Autosave completed.");
-                    }catch(Throwable e){
-                        err("Autosave failed.", e);
-                    }
+                    autosave();
                 }
             }
 
@@ -316,6 +300,76 @@ public class ServerControl implements ApplicationListener{
         });
     }
 
+    /** Writes an autosave, deleting the oldest ones above the limit. */
+    protected void autosave(){
+        int max = Config.autosaveAmount.num();
+
+        //use map file name to make sure it can be saved
+        String mapName = (state.map.file == null ? "unknown" : state.map.file.nameWithoutExtension()).replace(" ", "_");
+        String date = autosaveDate.format(LocalDateTime.now());
+
+        Seq<Fi> autosaves = saveDirectory.findAll(f -> f.name().startsWith("auto_"));
+        autosaves.sort(f -> -f.lastModified());
+
+        //delete older saves, except for full saves that newer deltas are based on
+        if(autosaves.size >= max){
+            ObjectSet<String> bases = new ObjectSet<>();
+            if(autosaveBase != null) bases.add(autosaveBase.file.name());
+            for(int i = 0; i < max - 1; i++){
+                String base = SaveDelta.baseName(autosaves.get(i));
+                if(base != null) bases.add(base);
+            }
+
+            for(int i = max - 1; i < autosaves.size; i++){
+                if(!bases.contains(autosaves.get(i).name())){
+                    autosaves.get(i).delete();
+                }
+            }
+        }
+
+        String fileName = "auto_" + mapName + "_" + date + "." + saveExtension;
+        Fi file = saveDirectory.child(fileName);
+        info("Autosaving...");
+
+        try{
+            int deltas = Config.autosaveDeltas.num();
+            if(deltas <= 0 && !Config.autosaveAsync.bool() && !Config.autosaveChunked.bool()){
+                autosaveBase = null;
+                SaveIO.save(file);
+                info("Autosave completed.");
+                return;
+            }
+
+            byte[] data = SaveIO.capture(null);
+            SaveIO.IOTask task;
+
+            if(autosaveBase != null && autosaveDeltas < deltas && autosaveBase.file.exists()){
+                SaveDelta.Base base = autosaveBase;
+                autosaveDeltas++;
+                task = () -> SaveDelta.write(file, base, data);
+            }else{
+                autosaveBase = deltas > 0 ? new SaveDelta.Base(file, data) : null;
+                autosaveDeltas = 0;
+                task = Config.autosaveChunked.bool() ? () -> SaveIO.writeChunked(file, data) : () -> SaveIO.writeCaptured(file, data);
+            }
+
+            if(Config.autosaveAsync.bool()){
+                SaveIO.writeAsync(task, error -> {
+                    if(error == null){
+                        info("Autosave completed.");
+                    }else{
+                        err("Autosave failed.", error);
+                    }
+                });
+            }else{
+                task.run();
+                info("Autosave completed.");
+            }
+        }catch(Throwable e){
+            err("Autosave failed.", e);
+        }
+    }
+
     protected void registerCommands(){
         handler.register("help", "[command]", "Display the command list, or get help for a specific command.", arg -> {
             if(arg.length > 0){
@@ -839,6 +893,7 @@ public class ServerControl implements ApplicationListener{
             if(info != null){
                 info.lastKicked = 0;
                 netServer.admins.kickedIPs.remove(info.lastIP);
+                netServer.admins.save(info);
                 info("Pardoned player: @", info.plainLastName());
             }else{
                 err("That ID can't be found.");
@@ -919,7 +974,7 @@ public class ServerControl implements ApplicationListener{
                 return;
             }
 
-            Fi newestSave = saveDirectory.findAll(f -> f.name().startsWith("auto_")).min(Fi::lastModified);
+            Fi newestSave = saveDirectory.findAll(f -> f.name().startsWith("auto_")).max(Fi::lastModified);
 
             if(newestSave == null){
                 err("No auto-saves found! Type `config autosave true` to enable auto-saves.");
@@ -987,8 +1042,18 @@ public class ServerControl implements ApplicationListener{
         handler.register("saves", "List all saves in the save directory.", arg -> {
             info("Save files: ");
             for(Fi file : saveDirectory.list()){
-                if(file.extension().equals(saveExtension)){
+                if(!file.extension().equals(saveExtension)) continue;
+
+                //only chunked saves have metadata that can be read without inflating the save
+                if(!ChunkedSave.isChunked(file)){
                     info("| @", file.nameWithoutExtension());
+                }else{
+                    try(DataInputStream stream = SaveIO.getMetaStream(file)){
+                        SaveMeta meta = SaveIO.getMeta(stream);
+                        info("| @ &lk(@, wave @)", file.nameWithoutExtension(), meta.tags.get("mapname", "unknown"), meta.wave);
+                    }catch(Throwable e){
+                        info("| @ &lr(invalid)", file.nameWithoutExtension());
+                    }
                 }
             }
         });
@@ -1046,6 +1111,68 @@ public class ServerControl implements ApplicationListener{
             info("@ MB collected. Memory usage now at @ MB.", pre - post, post);
         });
 
+        handler.register("netstats", "[amount/reset/dump]", "Display network traffic per packet type and connection, reset it, or dump it to a JSON file.", arg -> {
+            if(arg.length > 0 && arg[0].equals("reset")){
+                NetMetrics.reset();
+                info("Network statistics reset.");
+                return;
+            }
+
+            if(arg.length > 0 && arg[0].equals("dump")){
+                Fi file = Core.settings.getDataDirectory().child("netstats.json");
+                file.writeString(NetMetrics.toJson(net.getConnections()));
+                info("Network statistics written to &fi@&fr.", file.absolutePath());
+                return;
+            }
+
+            if(arg.length > 0 && !Strings.canParsePositiveInt(arg[0])){
+                err("Invalid usage. Use 'netstats [amount]', 'netstats reset' or 'netstats dump'.");
+                return;
+            }
+
+            int amount = arg.length > 0 ? Strings.parseInt(arg[0]) : 15;
+            float seconds = Math.max(Time.timeSinceMillis(NetMetrics.since()) / 1000f, 1f);
+            Seq<NetMetrics.PacketStats> packets = NetMetrics.packets();
+
+            info("Traffic over the last @ seconds:", (int)seconds);
+            for(int i = 0; i < Math.min(amount, packets.size); i++){
+                var s = packets.get(i);
+                info("  &lm@&fr: sent @ packets, @ KB/s (@% saved by compression, @ ms), received @ packets, @ KB/s",
+                    s.name, s.sentPackets, Strings.fixed(s.sentBytes / 1024f / seconds, 2), (int)(s.sentSaving() * 100), Strings.fixed(s.sentNanos / 1000000f, 1),
+                    s.receivedPackets, Strings.fixed(s.receivedBytes / 1024f / seconds, 2));
+            }
+            if(packets.size > amount){
+                info("  ...and @ more packet types.", packets.size - amount);
+            }
+
+            info("Connections:");
+            for(NetConnection con : net.getConnections()){
+                float conSeconds = Math.max(Time.timeSinceMillis(con.connectTime) / 1000f, 1f);
+                info("  @ @: sent @ KB/s, received @ KB/s", con.player == null ? "&lk<connecting>&fr" : con.player.plainName(), con.address,
+                    Strings.fixed(con.stats.sentBytes.get() / 1024f / conSeconds, 2), Strings.fixed(con.stats.receivedBytes.get() / 1024f / conSeconds, 2));
+            }
+        });
+
+        handler.register("transfers", "Display progress of world data being sent to joining players.", arg -> {
+            int sending = 0;
+            for(NetConnection con : net.getConnections()){
+                var transfer = con.transfer;
+                if(transfer == null) continue;
+
+                info("  @ @: @ / @ KB (@%), @ KB/s", con.player == null ? "&lk<connecting>&fr" : con.player.plainName(), con.address,
+                    transfer.sent / 1024, transfer.total / 1024, (int)(transfer.progress() * 100), Strings.fixed(transfer.speed() / 1024f, 1));
+                sending++;
+            }
+
+            if(sending == 0){
+                info("No world data is being sent.");
+            }
+
+            if(netServer.worldQueueSize() > 0){
+                info("@ players are waiting to receive world data.", netServer.worldQueueSize());
+            }
+        });
+
         handler.register("yes", "Run the last suggested incorrect command.", arg -> {
             if(suggested == null){
                 err("There is nothing to say yes to.");
@@ -1137,26 +1264,10 @@ public class ServerControl implements ApplicationListener{
         }
     }
 
+    /** Queues already formatted text to be written to the log file. */
     public void logToFile(String text){
-        if(currentLogFile != null && currentLogFile.length() > Config.maxLogLength.num()){
-            currentLogFile.writeString("[End of log file. Date: " + dateTime.format(LocalDateTime.now()) + "]\n", true);
-            currentLogFile = null;
-        }
-
-        for(String value : values){
-            text = text.replace(value, "");
-        }
-
-        if(currentLogFile == null){
-            int i = 0;
-            while(logFolder.child("log-" + i + ".txt").length() >= Config.maxLogLength.num()){
-                i++;
-            }
-
-            currentLogFile = logFolder.child("log-" + i + ".txt");
-        }
-
-        currentLogFile.writeString(text + "\n", true);
+        logWriter.log(null, text);
+        currentLogFile = logWriter.currentFile;
     }
 
     public void toggleSocket(boolean on){
@@ -1,6 +1,7 @@
 import arc.*;
 import arc.backend.headless.*;
 import arc.files.*;
+import arc.math.*;
 import arc.math.geom.*;
 import arc.struct.*;
 import arc.util.*;
@@ -8,6 +9,7 @@ import arc.util.io.*;
 import arc.util.serialization.*;
 import arc.util.serialization.JsonValue.*;
 import mindustry.*;
+import mindustry.ai.*;
 import mindustry.content.*;
 import mindustry.core.*;
 import mindustry.core.GameState.*;
@@ -374,6 +376,291 @@ public class ApplicationTests{
         assertTrue(state.teams.playerCores().size > 0);
     }
 
+    @Test
+    void saveDelta() throws IOException{
+        world.loadMap(testMap);
+        Fi baseFile = saveDirectory.child("delta-base.msav"), deltaFile = saveDirectory.child("delta.msav");
+
+        byte[] base = SaveIO.capture(null);
+        SaveIO.writeCaptured(baseFile, base);
+
+        UnitTypes.dagger.spawn(Team.sharded, 20f, 30f);
+        byte[] data = SaveIO.capture(null);
+        SaveDelta.write(deltaFile, new SaveDelta.Base(baseFile, base), data);
+
+        assertNull(SaveDelta.baseName(baseFile));
+        assertEquals(baseFile.name(), SaveDelta.baseName(deltaFile));
+        assertTrue(deltaFile.length() < baseFile.length(), "Delta must be smaller than the full save");
+        assertArrayEquals(data, readAll(SaveIO.read(deltaFile)), "Base and delta must reconstruct the same data");
+
+        resetWorld();
+        SaveIO.load(deltaFile);
+        assertNotNull(Groups.unit.find(u -> u.type == UnitTypes.dagger), "Units saved in the delta must load");
+    }
+
+    @Test
+    void chunkedSave() throws IOException{
+        world.loadMap(testMap);
+        Fi legacy = saveDirectory.child("legacy.msav"), chunked = saveDirectory.child("chunked.msav");
+
+        byte[] data = SaveIO.capture(null);
+        SaveIO.writeCaptured(legacy, data);
+        SaveIO.writeChunked(chunked, data);
+
+        assertFalse(ChunkedSave.isChunked(legacy));
+        assertTrue(ChunkedSave.isChunked(chunked));
+        assertArrayEquals(data, readAll(SaveIO.read(legacy)));
+        assertArrayEquals(data, ChunkedSave.read(chunked), "Parallel read must return the saved data");
+        assertArrayEquals(data, readAll(ChunkedSave.stream(chunked)), "Streamed read must return the saved data");
+
+        //the meta block is the header and meta region at the start of the save
+        byte[] meta = ChunkedSave.readBlock(chunked, "meta");
+        byte[] prefix = new byte[meta.length];
+        System.arraycopy(data, 0, prefix, 0, prefix.length);
+        assertArrayEquals(prefix, meta);
+        assertEquals(SaveIO.getMeta(legacy).timestamp, SaveIO.getMeta(chunked).timestamp);
+
+        //break the zlib header of the first compressed block
+        byte[] bytes = chunked.readBytes();
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes));
+        ChunkedSave.Block block = ChunkedSave.readIndex(stream).find(b -> b.compression == ChunkedSave.compressionDeflate);
+        int offset = bytes.length - stream.available() + block.offset;
+        bytes[offset] = 0;
+        bytes[offset + 1] = 0;
+        chunked.writeBytes(bytes, false);
+
+        assertThrows(IOException.class, () -> ChunkedSave.read(chunked));
+        assertThrows(IOException.class, () -> ChunkedSave.readBlock(chunked, block.name));
+        assertThrows(IOException.class, () -> readAll(ChunkedSave.stream(chunked)));
+        assertArrayEquals(meta, ChunkedSave.readBlock(chunked, "meta"), "Intact blocks must still be readable");
+    }
+
+    @Test
+    void playerStore(){
+        Fi file = testDataFolder.child("players-test.dat");
+        file.delete();
+
+        PlayerStore store = loadPlayers(file);
+        Administration.PlayerInfo info = new Administration.PlayerInfo();
+        info.id = "test-uuid";
+        info.lastName = "[red]Tester";
+        info.names.add(info.lastName);
+        info.ips.add("10.0.0.1");
+        info.timesJoined = 1;
+        store.add(info);
+        assertTrue(store.flush());
+        long length = file.length();
+
+        assertEquals(1, loadPlayers(file).get(info.id).timesJoined);
+        assertEquals(1, loadPlayers(file).findByName("tester").size, "Names must be indexed without colors");
+        assertEquals(1, loadPlayers(file).findByIP("10.0.0.1").size);
+
+        //a record that was cut off while writing
+        info.timesJoined = 2;
+        store.changed(info);
+        assertTrue(store.flush());
+        assertTrue(file.length() > length);
+        truncate(file, 3);
+        assertEquals(1, loadPlayers(file).get(info.id).timesJoined, "Cut off records must be discarded");
+        assertEquals(length, file.length(), "Invalid data must be removed from the file");
+
+        //a record with a bad checksum
+        store = loadPlayers(file);
+        info = store.get("test-uuid");
+        info.timesJoined = 3;
+        store.changed(info);
+        assertTrue(store.flush());
+        byte[] bytes = file.readBytes();
+        bytes[bytes.length - 1] ^= 1;
+        file.writeBytes(bytes, false);
+        assertEquals(1, loadPlayers(file).get(info.id).timesJoined, "Records with a bad checksum must be discarded");
+
+        //outdated records are removed by compaction
+        store = loadPlayers(file);
+        for(int i = 0; i < 10; i++){
+            Administration.PlayerInfo other = new Administration.PlayerInfo();
+            other.id = "other-" + i;
+            store.add(other);
+        }
+        for(int i = 0; i < 20; i++){
+            for(Administration.PlayerInfo other : store.players.values().toSeq()){
+                other.timesKicked = i;
+                store.changed(other);
+            }
+            assertTrue(store.flush());
+        }
+        length = file.length();
+        store.compact();
+        assertTrue(file.length() < length);
+
+        PlayerStore compacted = loadPlayers(file);
+        assertEquals(11, compacted.players.size);
+        assertEquals(19, compacted.get("other-5").timesKicked);
+        assertEquals(19, compacted.get("test-uuid").timesKicked);
+        assertEquals("[red]Tester", compacted.get("test-uuid").lastName);
+
+        //info that used to be stored in the settings is moved to the player file
+        Administration.PlayerInfo legacy = new Administration.PlayerInfo();
+        legacy.id = "legacy-uuid";
+        legacy.lastName = "Legacy";
+        legacy.names.add(legacy.lastName);
+        legacy.timesJoined = 7;
+        ObjectMap<String, Administration.PlayerInfo> legacyData = new ObjectMap<>();
+        legacyData.put(legacy.id, legacy);
+        Core.settings.putJson("player-data", legacyData);
+
+        Administration admins = new Administration();
+        assertFalse(Core.settings.has("player-data"));
+        assertEquals(7, admins.getInfoOptional("legacy-uuid").timesJoined);
+        assertEquals(7, loadPlayers(admins.store.file).get("legacy-uuid").timesJoined, "Moved info must be written to the player file");
+    }
+
+    static PlayerStore loadPlayers(Fi file){
+        PlayerStore store = new PlayerStore(file);
+        store.load();
+        return store;
+    }
+
+    static void truncate(Fi file, int amount){
+        byte[] bytes = file.readBytes();
+        byte[] result = new byte[bytes.length - amount];
+        System.arraycopy(bytes, 0, result, 0, result.length);
+        file.writeBytes(result, false);
+    }
+
+    static byte[] readAll(InputStream input) throws IOException{
+        try(input){
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            input.transferTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    void bucketQueueResize(){
+        BucketQueue queue = new BucketQueue(2);
+        queue.add(1, 10);
+        queue.add(2, 11);
+        //lower than the lowest cost, and does not fit into the ring anymore
+        queue.add(3, 9);
+        queue.add(4, 12);
+
+        assertEquals(3, queue.poll());
+        assertEquals(9, queue.cost());
+        assertEquals(1, queue.poll());
+        assertEquals(10, queue.cost());
+
+        //spans more buckets again, after the lowest cost moved forward
+        queue.add(5, 30);
+        queue.add(6, 10);
+        assertEquals(6, queue.poll());
+        assertEquals(10, queue.cost());
+        assertEquals(2, queue.poll());
+        assertEquals(4, queue.poll());
+        assertEquals(5, queue.poll());
+        assertEquals(30, queue.cost());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void bucketQueueOrder(){
+        BucketQueue queue = new BucketQueue(2);
+        Rand rand = new Rand(1);
+        int[] counts = new int[512];
+        int size = 0, min = 0;
+
+        for(int i = 0; i < 10000; i++){
+            if(size > 0 && rand.chance(0.4)){
+                queue.poll();
+                int cost = queue.cost();
+                for(int c = 0; c < counts.length; c++){
+                    if(counts[c] > 0){
+                        assertEquals(c, cost, "Polled cost must be the lowest one");
+                        break;
+                    }
+                }
+                counts[cost]--;
+                size--;
+                min = cost;
+            }else{
+                //mostly costs above the last polled one, as when propagating, but sometimes lower ones
+                int cost = rand.chance(0.1) ? rand.random(0, 511) : Math.min(min + rand.random(0, 64), 511);
+                queue.add(i, cost);
+                counts[cost]++;
+                size++;
+            }
+            assertEquals(size, queue.size);
+        }
+    }
+
+    @Test
+    void connectionThrottle(){
+        ConnectionThrottle throttle = new ConnectionThrottle();
+        long time = 1000;
+
+        //2 connections at once, then one every 10 seconds
+        assertTrue(throttle.allow("10.0.0.1", 2, 6, time));
+        assertTrue(throttle.allow("10.0.0.1", 2, 6, time));
+        assertFalse(throttle.allow("10.0.0.1", 2, 6, time));
+        assertFalse(throttle.allow("10.0.0.1", 2, 6, time + 5000));
+        assertTrue(throttle.allow("10.0.0.1", 2, 6, time + 10000), "Tokens must refill over time");
+        assertFalse(throttle.allow("10.0.0.1", 2, 6, time + 10000));
+
+        //a full bucket does not keep refilling
+        assertTrue(throttle.allow("10.0.0.1", 2, 6, time + 100000));
+        assertTrue(throttle.allow("10.0.0.1", 2, 6, time + 100000));
+        assertFalse(throttle.allow("10.0.0.1", 2, 6, time + 100000));
+
+        //other IPs of the same subnet share a larger bucket
+        throttle.clear();
+        int allowed = 0;
+        for(int i = 0; i < 20; i++){
+            if(throttle.allow("10.0.1." + i, 2, 6, time)) allowed++;
+        }
+        assertEquals(2 * ConnectionThrottle.subnetFactor, allowed, "Subnets must be limited");
+        assertTrue(throttle.allow("10.0.2.1", 2, 6, time), "Other subnets must not be limited");
+
+        //IPv6 subnets are /48
+        throttle.clear();
+        allowed = 0;
+        for(int i = 0; i < 20; i++){
+            if(throttle.allow("2001:db8:1:" + i + "::1", 2, 6, time)) allowed++;
+        }
+        assertEquals(2 * ConnectionThrottle.subnetFactor, allowed);
+        assertTrue(throttle.allow("2001:db8:2::1", 2, 6, time));
+
+        assertTrue(throttle.allow("10.0.0.1", 0, 0, time), "Throttling must be off without a burst or rate");
+    }
+
+    @Test
+    void snapshotBufferWrap(){
+        SnapshotBuffer buffer = new SnapshotBuffer();
+        byte[] data = {};
+
+        //server time wraps around between these snapshots, which were sent 20 ms apart and arrive with the same delay
+        buffer.add(1, Integer.MAX_VALUE - 9, (short)0, true, (short)1, data, 1000);
+        buffer.add(2, Integer.MIN_VALUE + 10, (short)0, true, (short)1, data, 1020);
+        assertEquals(0, buffer.delay());
+
+        assertEquals(1, buffer.poll(1019).id);
+        assertNull(buffer.poll(1019), "Snapshots sent after the time wrapped must not be due early");
+        assertEquals(2, buffer.poll(1020).id);
+
+        //chunks arriving out of order are applied in order
+        buffer.add(4, Integer.MIN_VALUE + 50, (short)1, false, (short)2, data, 1060);
+        buffer.add(3, Integer.MIN_VALUE + 30, (short)0, true, (short)1, data, 1060);
+        buffer.add(4, Integer.MIN_VALUE + 50, (short)0, false, (short)2, data, 1060);
+        assertEquals(3, buffer.size());
+
+        SnapshotBuffer.Chunk first = buffer.poll(2000), second = buffer.poll(2000), third = buffer.poll(2000);
+        assertEquals(3, first.id);
+        assertEquals(4, second.id);
+        assertEquals(0, second.chunk);
+        assertEquals(4, third.id);
+        assertEquals(1, third.chunk);
+        assertNull(buffer.poll(2000));
+    }
+
     void updateBlocks(int times){
         for(Tile tile : world.tiles){
             if(tile.build != null && tile.isCenter()){